@@ -20,11 +20,14 @@ import javax.tools.Diagnostic.Kind;
 import javax.tools.JavaFileManager.Location;
 import javax.tools.JavaFileObject;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.EnumSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 import static io.jbock.testing.compile.JavaFileObjects.asBytes;
@@ -40,22 +43,34 @@ import static javax.tools.StandardLocation.SOURCE_OUTPUT;
 public final class Compilation {
 
     private final Compiler compiler;
+    private final List<String> processorNames;
     private final List<JavaFileObject> sourceFiles;
     private final Status status;
     private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
     private final List<JavaFileObject> generatedFiles;
+    private final CompilationTimings timings;
+    private final List<ProcessorProfile> processorProfiles;
+    private volatile DiagnosticIndex diagnosticIndex;
+    private volatile Map<String, Map<String, JavaFileObject>> generatedFilesByLocation;
+    private volatile Map<JavaFileObject.Kind, Map<Long, List<JavaFileObject>>> generatedFilesByContent;
 
     Compilation(
             Compiler compiler,
+            List<String> processorNames,
             Iterable<? extends JavaFileObject> sourceFiles,
             boolean successful,
             Iterable<Diagnostic<? extends JavaFileObject>> diagnostics,
-            Iterable<JavaFileObject> generatedFiles) {
+            Iterable<JavaFileObject> generatedFiles,
+            CompilationTimings timings,
+            List<ProcessorProfile> processorProfiles) {
         this.compiler = compiler;
+        this.processorNames = processorNames;
         this.sourceFiles = Util.listOf(sourceFiles);
         this.status = successful ? Status.SUCCESS : Status.FAILURE;
         this.diagnostics = Util.listOf(diagnostics);
         this.generatedFiles = Util.listOf(generatedFiles);
+        this.timings = timings;
+        this.processorProfiles = processorProfiles;
     }
 
     /** The compiler. */
@@ -73,6 +88,25 @@ public final class Compilation {
         return status;
     }
 
+    /**
+     * The time that the compiler spent in each phase. If the result was taken from a {@linkplain
+     * Compiler#withCache cache}, the compiler did not run and all timings are zero.
+     */
+    public CompilationTimings timings() {
+        return timings;
+    }
+
+    /**
+     * The time that each annotation processor spent, in the order of {@link
+     * Compiler#processors()} followed by {@link Compiler#processorFactories()}. If the result was
+     * taken from a {@linkplain Compiler#withCache cache}, the processors did not run and the list is
+     * empty. The list is also empty unless the compiler {@linkplain Compiler#withProcessorProfiling
+     * profiles processors}.
+     */
+    public List<ProcessorProfile> processorProfiles() {
+        return processorProfiles;
+    }
+
     /**
      * All diagnostics reported during compilation. The order of the returned list is unspecified.
      *
@@ -103,12 +137,17 @@ public final class Compilation {
     }
 
     List<Diagnostic<? extends JavaFileObject>> diagnosticsOfKind(Kind kind, Kind... more) {
-        Set<Kind> kinds = EnumSet.of(kind);
-        Collections.addAll(kinds, more);
-        return diagnostics()
-                .stream()
-                .filter(diagnostic -> kinds.contains(diagnostic.getKind()))
-                .collect(Collectors.toList());
+        return diagnosticIndex().ofKinds(kind, more);
+    }
+
+    /** The diagnostics indexed by kind, file and line. It is built when it is first needed. */
+    DiagnosticIndex diagnosticIndex() {
+        DiagnosticIndex index = diagnosticIndex;
+        if (index == null) {
+            index = new DiagnosticIndex(diagnostics);
+            diagnosticIndex = index;
+        }
+        return index;
     }
 
     /**
@@ -152,13 +191,65 @@ public final class Compilation {
      *     of the generated files is undefined in that case
      */
     public Optional<JavaFileObject> generatedFile(Location location, String path) {
-        // We're relying on the implementation of location.getName() to be equivalent to the first
-        // part of the path.
-        String expectedFilename = String.format("%s/%s", location.getName(), path);
-        return generatedFiles()
-                .stream()
-                .filter(generated -> generated.toUri().getPath().endsWith(expectedFilename))
-                .findFirst();
+        generatedFiles();
+        return Optional.ofNullable(generatedFilesIn(location).get(path));
+    }
+
+    /**
+     * The files generated in a location, by their path relative to the location, in the order in
+     * which they were generated. The index is built when it is first needed.
+     */
+    Map<String, JavaFileObject> generatedFilesIn(Location location) {
+        Map<String, Map<String, JavaFileObject>> index = generatedFilesByLocation;
+        if (index == null) {
+            index = new HashMap<>();
+            for (JavaFileObject generated : generatedFiles) {
+                // We're relying on the implementation of location.getName() to be equivalent to the
+                // first part of the path.
+                String path = generated.toUri().getPath();
+                int start = path.startsWith("/") ? 1 : 0;
+                int slash = path.indexOf('/', start);
+                if (slash >= 0) {
+                    index.computeIfAbsent(path.substring(start, slash), l -> new LinkedHashMap<>())
+                            .putIfAbsent(path.substring(slash + 1), generated);
+                }
+            }
+            generatedFilesByLocation = index;
+        }
+        return index.getOrDefault(location.getName(), Map.of());
+    }
+
+    /**
+     * Returns whether a file of the same kind and with the same contents as {@code expected} was
+     * generated. Generated files are hashed once, and their contents are only compared to files with
+     * the same hash.
+     *
+     * @throws IllegalStateException for {@linkplain #status() failed compilations}
+     */
+    boolean generatedFileWithContentsOf(JavaFileObject expected) {
+        Map<JavaFileObject.Kind, Map<Long, List<JavaFileObject>>> index = generatedFilesByContent;
+        if (index == null) {
+            index = new EnumMap<>(JavaFileObject.Kind.class);
+            for (JavaFileObject generated : generatedFiles()) {
+                index.computeIfAbsent(generated.getKind(), k -> new HashMap<>())
+                        .computeIfAbsent(contentHash(asBytes(generated)), h -> new ArrayList<>(1))
+                        .add(generated);
+            }
+            generatedFilesByContent = index;
+        }
+        byte[] expectedBytes = asBytes(expected);
+        List<JavaFileObject> candidates = index.getOrDefault(expected.getKind(), Map.of())
+                .getOrDefault(contentHash(expectedBytes), List.of());
+        for (JavaFileObject generated : candidates) {
+            if (Arrays.equals(expectedBytes, asBytes(generated))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long contentHash(byte[] contents) {
+        return ((long) contents.length << 32) | (Arrays.hashCode(contents) & 0xffffffffL);
     }
 
     /**
@@ -209,8 +300,8 @@ public final class Compilation {
         builder
                 .append("compilation of ")
                 .append(sourceFiles.stream().map(JavaFileObject::getName).collect(toList()));
-        if (!compiler.processors().isEmpty()) {
-            builder.append(" using annotation processors ").append(compiler.processors());
+        if (!processorNames.isEmpty()) {
+            builder.append(" using annotation processors ").append(processorNames);
         }
         if (!compiler.options().isEmpty()) {
             builder.append(" passing options ").append(compiler.options());
@@ -218,6 +309,16 @@ public final class Compilation {
         return builder.toString();
     }
 
+    /** The names of the annotation processors that ran. */
+    List<String> processorNames() {
+        return processorNames;
+    }
+
+    /** The generated files, regardless of the status. */
+    List<JavaFileObject> outputFiles() {
+        return generatedFiles;
+    }
+
     /** Returns a description of the why the compilation failed. */
     String describeFailureDiagnostics() {
         List<Diagnostic<? extends JavaFileObject>> diagnostics = diagnostics();
@@ -0,0 +1,483 @@
+package io.jbock.testing.compile;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A cache of {@link Compilation} results, for use with {@link Compiler#withCache}.
+ *
+ * <p>Compilations are identified by the contents and names of the source files, the compiler
+ * options, the classes of the annotation processors, the class path and annotation processor path,
+ * and the running JDK. Class path entries are fingerprinted by their names, sizes and modification
+ * times. Directories are walked on every lookup, so that a change anywhere in the directory tree is
+ * noticed. Processor classes are fingerprinted by the jar or directory that they were loaded from.
+ *
+ * <p>Only {@linkplain Compiler#withProcessorFactories processor factories} can be used with a cache;
+ * a compiler with {@linkplain Compiler#withProcessors processor instances} fails to compile, because
+ * the state of an instance is not part of the key. A factory is called once to learn the class of
+ * its processors. After that, a cached result is found without calling the factory, so a factory
+ * has to create processors of the same class every time.
+ *
+ * <p>A cached result is returned without running the annotation processors. This is only correct
+ * if processors of the same class always generate the same output for the same input, so
+ * factories that configure their processors differently, or processors whose side effects a test
+ * checks, must not be used with a cache.
+ *
+ * <p>Every result that is taken from the cache has its own copies of the generated files and
+ * diagnostics, so changing a generated file of one result does not change the others.
+ *
+ * <p>Results are kept in a bounded in-memory cache, where the least recently used result is
+ * evicted first. An optional directory on disk keeps the results between runs, for example
+ * {@code build/compile-testing-cache}. The directory is never cleaned up by this class.
+ */
+public final class CompilationCache {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final int maximumSize;
+    private final Optional<Path> directory;
+    // results in the format of the files on disk, so that every hit decodes its own copy
+    private final Map<String, byte[]> memory;
+
+    private CompilationCache(int maximumSize, Optional<Path> directory) {
+        Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive: %s", maximumSize);
+        this.maximumSize = maximumSize;
+        this.directory = directory;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > CompilationCache.this.maximumSize;
+            }
+        };
+    }
+
+    /** Returns a cache that keeps up to {@code maximumSize} results in memory. */
+    public static CompilationCache inMemory(int maximumSize) {
+        return new CompilationCache(maximumSize, Optional.empty());
+    }
+
+    /**
+     * Returns a cache that keeps up to {@code maximumSize} results in memory, and all results in
+     * {@code directory}. The directory is created if it does not exist.
+     */
+    public static CompilationCache onDisk(int maximumSize, Path directory) {
+        return new CompilationCache(maximumSize, Optional.of(directory));
+    }
+
+    /** Returns the number of results that are currently held in memory. */
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    /** Discards the results that are held in memory. Results on disk are kept. */
+    public synchronized void clear() {
+        memory.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "CompilationCache{maximumSize=" + maximumSize
+                + directory.map(path -> ", directory=" + path).orElse("") + "}";
+    }
+
+    /**
+     * Returns the cached result for {@code key}, as a compilation of {@code sourceFiles} by {@code
+     * compiler}.
+     */
+    Optional<Compilation> get(String key, Compiler compiler, List<JavaFileObject> sourceFiles) {
+        byte[] cached;
+        synchronized (this) {
+            cached = memory.get(key);
+        }
+        if (cached == null && directory.isPresent()) {
+            cached = read(directory.get().resolve(key));
+        }
+        if (cached == null) {
+            return Optional.empty();
+        }
+        Compilation compilation = decode(cached, compiler, sourceFiles);
+        if (compilation != null) {
+            synchronized (this) {
+                memory.put(key, cached);
+            }
+        }
+        return Optional.ofNullable(compilation);
+    }
+
+    /** Stores the result of a compilation under {@code key}. */
+    void put(String key, Compilation compilation) {
+        byte[] encoded = encode(compilation);
+        synchronized (this) {
+            memory.put(key, encoded);
+        }
+        directory.ifPresent(path -> write(path, key, encoded));
+    }
+
+    /**
+     * Returns the class of the processors that {@code factory} creates, if the factory was called
+     * before.
+     */
+    static Optional<Class<?>> processorClass(Supplier<? extends Processor> factory) {
+        return Optional.ofNullable(FACTORY_CLASSES.get(factory));
+    }
+
+    /** Remembers the class of a processor that {@code factory} created. */
+    static void putProcessorClass(Supplier<? extends Processor> factory, Class<?> processorClass) {
+        FACTORY_CLASSES.put(factory, processorClass);
+    }
+
+    /**
+     * Returns the key of a compilation of {@code sourceFiles} by {@code compiler}, with processors of
+     * the given classes.
+     */
+    static String key(Compiler compiler, List<JavaFileObject> sourceFiles, List<Class<?>> processorClasses) {
+        Hasher hasher = new Hasher();
+        hasher.putInt(FORMAT_VERSION);
+        hasher.putString(Runtime.version().toString());
+        hasher.putString(compiler.javaCompiler().getClass().getName());
+        hasher.putString(Locale.getDefault().toLanguageTag());
+        hasher.putStrings(compiler.options());
+        hasher.putInt(sourceFiles.size());
+        for (JavaFileObject sourceFile : sourceFiles) {
+            hasher.putString(sourceFile.toUri().toString());
+            hasher.putString(sourceFile.getKind().name());
+            try {
+                hasher.putString(sourceFile.getCharContent(true).toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        hasher.putInt(processorClasses.size());
+        for (Class<?> processorClass : processorClasses) {
+            hasher.putString(processorClass.getName());
+            hasher.putString(CLASS_FINGERPRINTS.get(processorClass));
+        }
+        putPath(hasher, compiler.classPath().orElseGet(CompilationCache::systemClassPath));
+        putPath(hasher, compiler.annotationProcessorPath().orElse(List.of()));
+        return hasher.hash();
+    }
+
+    private static List<File> systemClassPath() {
+        return Stream.of(System.getProperty("java.class.path").split(File.pathSeparator, -1))
+                .filter(entry -> !entry.isEmpty())
+                .map(File::new)
+                .collect(Collectors.toList());
+    }
+
+    private static void putPath(Hasher hasher, List<File> path) {
+        hasher.putInt(path.size());
+        for (File entry : path) {
+            hasher.putString(fingerprint(entry.toPath()));
+        }
+    }
+
+    /** The classes of the processors that factories created. Factories are compared by identity. */
+    private static final Map<Supplier<?>, Class<?>> FACTORY_CLASSES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Fingerprints of the locations that classes were loaded from. */
+    private static final Map<String, String> LOCATION_FINGERPRINTS = new ConcurrentHashMap<>();
+
+    /**
+     * Fingerprints of classes. A class cannot change once it is loaded, so its location only needs
+     * to be fingerprinted once per JVM.
+     */
+    private static final ClassValue<String> CLASS_FINGERPRINTS = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+            URL location = codeSource == null ? null : codeSource.getLocation();
+            if (location == null || !"file".equals(location.getProtocol())) {
+                return String.valueOf(location);
+            }
+            return LOCATION_FINGERPRINTS.computeIfAbsent(location.toString(), url -> {
+                try {
+                    return fingerprint(Paths.get(new URI(url)));
+                } catch (URISyntaxException e) {
+                    return url;
+                }
+            });
+        }
+    };
+
+    /**
+     * Returns a string that changes when the file, or any file in the directory, is added, removed,
+     * resized or touched.
+     */
+    private static String fingerprint(Path path) {
+        Hasher hasher = new Hasher();
+        hasher.putString(path.toString());
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isDirectory()) {
+                hasher.putLong(attributes.size());
+                hasher.putLong(attributes.lastModifiedTime().toMillis());
+                return hasher.hash();
+            }
+            try (Stream<Path> files = Files.walk(path)) {
+                for (Path file : files.sorted().collect(Collectors.toList())) {
+                    BasicFileAttributes fileAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    hasher.putString(path.relativize(file).toString());
+                    hasher.putLong(fileAttributes.size());
+                    hasher.putLong(fileAttributes.lastModifiedTime().toMillis());
+                }
+            }
+        } catch (NoSuchFileException e) {
+            hasher.putString("missing");
+        } catch (IOException | UncheckedIOException e) {
+            // unreadable, so it cannot be told apart from a missing file
+            hasher.putString("unreadable");
+        }
+        return hasher.hash();
+    }
+
+    private static void write(Path directory, String key, byte[] encoded) {
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, encoded);
+            try {
+                Files.move(temporary, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // The result is still cached in memory. Failing to keep it on disk only costs time.
+        }
+    }
+
+    private static byte[] read(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(Compilation compilation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeCompilation(out, compilation);
+        } catch (IOException e) {
+            // impossible, the output stream is in memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns a new compilation of {@code sourceFiles} by {@code compiler} with the encoded results,
+     * or {@code null} if they cannot be decoded.
+     */
+    private static Compilation decode(byte[] encoded, Compiler compiler, List<JavaFileObject> sourceFiles) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            return readCompilation(in, compiler, sourceFiles);
+        } catch (IOException | RuntimeException e) {
+            // written by an incompatible version, or truncated
+            return null;
+        }
+    }
+
+    private static void writeCompilation(DataOutputStream out, Compilation compilation)
+            throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeBoolean(compilation.status().equals(Compilation.Status.SUCCESS));
+        out.writeInt(compilation.processorNames().size());
+        for (String processorName : compilation.processorNames()) {
+            writeString(out, processorName);
+        }
+        out.writeInt(compilation.outputFiles().size());
+        for (JavaFileObject outputFile : compilation.outputFiles()) {
+            writeString(out, outputFile.toUri().toString());
+            byte[] content = JavaFileObjects.asBytes(outputFile);
+            out.writeInt(content.length);
+            out.write(content);
+        }
+        out.writeInt(compilation.diagnostics().size());
+        for (Diagnostic<? extends JavaFileObject> diagnostic : compilation.diagnostics()) {
+            out.writeUTF(diagnostic.getKind().name());
+            JavaFileObject source = diagnostic.getSource();
+            out.writeBoolean(source != null);
+            if (source != null) {
+                writeString(out, source.toUri().toString());
+            }
+            out.writeLong(diagnostic.getPosition());
+            out.writeLong(diagnostic.getStartPosition());
+            out.writeLong(diagnostic.getEndPosition());
+            out.writeLong(diagnostic.getLineNumber());
+            out.writeLong(diagnostic.getColumnNumber());
+            out.writeBoolean(diagnostic.getCode() != null);
+            if (diagnostic.getCode() != null) {
+                writeString(out, diagnostic.getCode());
+            }
+            writeString(out, diagnostic.getMessage(null));
+            writeString(out, diagnostic.toString());
+        }
+    }
+
+    private static Compilation readCompilation(
+            DataInputStream in, Compiler compiler, List<JavaFileObject> sourceFiles) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        boolean successful = in.readBoolean();
+        int processorCount = in.readInt();
+        List<String> processorNames = new ArrayList<>(processorCount);
+        for (int i = 0; i < processorCount; i++) {
+            processorNames.add(readString(in));
+        }
+        Map<URI, JavaFileObject> files = new HashMap<>();
+        sourceFiles.forEach(sourceFile -> files.put(sourceFile.toUri(), sourceFile));
+        int outputCount = in.readInt();
+        List<JavaFileObject> outputFiles = new ArrayList<>(outputCount);
+        for (int i = 0; i < outputCount; i++) {
+            URI uri = URI.create(readString(in));
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            JavaFileObject outputFile = InMemoryJavaFileManager.outputFile(uri, content);
+            outputFiles.add(outputFile);
+            files.put(uri, outputFile);
+        }
+        int diagnosticCount = in.readInt();
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>(diagnosticCount);
+        for (int i = 0; i < diagnosticCount; i++) {
+            Diagnostic.Kind kind = Diagnostic.Kind.valueOf(in.readUTF());
+            JavaFileObject source =
+                    in.readBoolean() ? files.computeIfAbsent(URI.create(readString(in)), UnreadableFile::new) : null;
+            long position = in.readLong();
+            long startPosition = in.readLong();
+            long endPosition = in.readLong();
+            long lineNumber = in.readLong();
+            long columnNumber = in.readLong();
+            String code = in.readBoolean() ? readString(in) : null;
+            String message = readString(in);
+            String description = readString(in);
+            diagnostics.add(new DiagnosticSnapshot(
+                    kind, source, position, startPosition, endPosition, lineNumber, columnNumber,
+                    code, message, description));
+        }
+        return new Compilation(
+                compiler,
+                processorNames,
+                sourceFiles,
+                successful,
+                diagnostics,
+                outputFiles,
+                CompilationTimings.NONE,
+                List.of());
+    }
+
+    // DataOutputStream.writeUTF is limited to 64k bytes
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /** The source of a restored diagnostic that is neither a source file nor a generated file. */
+    private static final class UnreadableFile extends SimpleJavaFileObject {
+        UnreadableFile(URI uri) {
+            super(uri, JavaFileObjects.deduceKind(uri));
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            throw new IOException("not cached: " + toUri());
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+            throw new IOException("not cached: " + toUri());
+        }
+    }
+
+    /** Computes a SHA-256 hash of a sequence of values. */
+    private static final class Hasher {
+        private final MessageDigest digest;
+
+        Hasher() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every JDK supports SHA-256
+                throw new AssertionError(e);
+            }
+        }
+
+        void putInt(int value) {
+            digest.update(new byte[]{
+                    (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+        }
+
+        void putLong(long value) {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            putInt(bytes.length);
+            digest.update(bytes);
+        }
+
+        void putStrings(List<String> values) {
+            putInt(values.size());
+            values.forEach(this::putString);
+        }
+
+        String hash() {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+    }
+}
@@ -35,6 +35,7 @@ import javax.lang.model.element.TypeElement;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.JavaFileObject;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -205,10 +206,11 @@ public class CompilationExtension implements BeforeAllCallback, BeforeEachCallba
                     return parties == 0;
                 }
             };
-            this.result = CompletableFuture.completedFuture(DUMMY).thenApplyAsync(
-                    new EvaluatingProcessor(syncBarrier, sharedState),
-                    compilerExecutor
-            );
+            this.result = Compiler.javac()
+                    .withProcessors(new EvaluatingProcessor(syncBarrier, sharedState))
+                    .compileAsync(compilerExecutor, List.of(DUMMY))
+                    // Whatever the outcome, the tests must not wait for the processor any longer
+                    .whenComplete((compilation, throwable) -> syncBarrier.forceTermination());
         }
 
         ProcessingEnvironment getProcessingEnvironment() throws ParameterResolutionException {
@@ -308,8 +310,7 @@ public class CompilationExtension implements BeforeAllCallback, BeforeEachCallba
         }
     }
 
-    static final class EvaluatingProcessor extends AbstractProcessor
-            implements Function<JavaFileObject, Compilation> {
+    static final class EvaluatingProcessor extends AbstractProcessor {
         private final Phaser syncBarrier;
         private final AtomicReference<ProcessingEnvironment> sharedState;
 
@@ -356,14 +357,5 @@ public class CompilationExtension implements BeforeAllCallback, BeforeEachCallba
             }
             return false;
         }
-
-        @Override
-        public Compilation apply(JavaFileObject inputObject) {
-            try {
-                return Compiler.javac().withProcessors(this).compile(inputObject);
-            } finally {
-                syncBarrier.forceTermination();
-            }
-        }
     }
 }
\ No newline at end of file
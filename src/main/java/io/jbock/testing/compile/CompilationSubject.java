@@ -25,6 +25,8 @@ import javax.tools.JavaFileManager.Location;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardLocation;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
@@ -264,23 +266,26 @@ public final class CompilationSubject extends Subject {
      * Returns the diagnostics that match one of the kinds and a pattern. If none match, fails the
      * test.
      */
-    private List<Diagnostic<? extends JavaFileObject>> findMatchingDiagnostics(
+    private BitSet findMatchingDiagnostics(
             String expectedDiagnostic,
             Pattern expectedPattern,
             Diagnostic.Kind kind,
             Diagnostic.Kind... more) {
-        List<Diagnostic<? extends JavaFileObject>> diagnosticsOfKind =
-                actual.diagnosticsOfKind(kind, more);
-        List<Diagnostic<? extends JavaFileObject>> diagnosticsWithMessage =
-                diagnosticsOfKind
-                        .stream()
-                        .filter(diagnostic -> expectedPattern.matcher(diagnostic.getMessage(null)).find())
-                        .collect(Collectors.toList());
+        DiagnosticIndex index = actual.diagnosticIndex();
+        BitSet diagnosticsOfKind = index.bitsOfKinds(EnumSet.of(kind, more));
+        BitSet diagnosticsWithMessage = new BitSet();
+        for (int i = diagnosticsOfKind.nextSetBit(0); i >= 0; i = diagnosticsOfKind.nextSetBit(i + 1)) {
+            if (expectedPattern.matcher(index.message(i)).find()) {
+                diagnosticsWithMessage.set(i);
+            }
+        }
         if (diagnosticsWithMessage.isEmpty()) {
             failWithoutActual(
                     simpleFact(
                             messageListing(
-                                    diagnosticsOfKind, "Expected %s, but only found:", expectedDiagnostic)));
+                                    index.list(diagnosticsOfKind),
+                                    "Expected %s, but only found:",
+                                    expectedDiagnostic)));
         }
         return diagnosticsWithMessage;
     }
@@ -303,7 +308,7 @@ public final class CompilationSubject extends Subject {
     /** Asserts that compilation generated a source file for a type with a given qualified name. */
     public JavaFileObjectSubject generatedSourceFile(String qualifiedName) {
         return generatedFile(
-                StandardLocation.SOURCE_OUTPUT, qualifiedName.replaceAll("\\.", "/") + ".java");
+                StandardLocation.SOURCE_OUTPUT, qualifiedName.replace('.', '/') + ".java");
     }
 
     private static final JavaFileObject ALREADY_FAILED =
@@ -317,10 +322,8 @@ public final class CompilationSubject extends Subject {
             List<Fact> facts = new ArrayList<>();
             facts.add(fact("in location", location.getName()));
             facts.add(simpleFact("it generated:"));
-            for (JavaFileObject generated : actual.generatedFiles()) {
-                if (generated.toUri().getPath().contains(location.getName())) {
-                    facts.add(simpleFact("  " + generated.toUri().getPath()));
-                }
+            for (JavaFileObject generated : actual.generatedFilesIn(location).values()) {
+                facts.add(simpleFact("  " + generated.toUri().getPath()));
             }
             failWithoutActual(
                     fact("expected to generate file", "/" + path), facts.toArray(new Fact[0]));
@@ -335,28 +338,37 @@ public final class CompilationSubject extends Subject {
 
     private class DiagnosticAssertions {
         private final String expectedDiagnostic;
-        private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        /** The positions of the matching diagnostics in the {@link DiagnosticIndex}. */
+        final BitSet positions;
+        private List<Diagnostic<? extends JavaFileObject>> diagnostics;
 
-        DiagnosticAssertions(
-                String expectedDiagnostic,
-                Iterable<Diagnostic<? extends JavaFileObject>> matchingDiagnostics) {
+        DiagnosticAssertions(String expectedDiagnostic, BitSet positions) {
             this.expectedDiagnostic = expectedDiagnostic;
-            this.diagnostics = Util.listOf(matchingDiagnostics);
+            this.positions = positions;
         }
 
-        DiagnosticAssertions(
-                DiagnosticAssertions previous,
-                Iterable<Diagnostic<? extends JavaFileObject>> matchingDiagnostics) {
-            this(previous.expectedDiagnostic, matchingDiagnostics);
+        DiagnosticAssertions(DiagnosticAssertions previous, BitSet positions) {
+            this(previous.expectedDiagnostic, positions);
+        }
+
+        DiagnosticIndex index() {
+            return actual.diagnosticIndex();
+        }
+
+        private List<Diagnostic<? extends JavaFileObject>> diagnostics() {
+            if (diagnostics == null) {
+                diagnostics = index().list(positions);
+            }
+            return diagnostics;
         }
 
         List<Diagnostic<? extends JavaFileObject>> filterDiagnostics(
                 Predicate<? super Diagnostic<? extends JavaFileObject>> predicate) {
-            return diagnostics.stream().filter(predicate).collect(Collectors.toList());
+            return diagnostics().stream().filter(predicate).collect(Collectors.toList());
         }
 
         <T> Stream<T> mapDiagnostics(Function<? super Diagnostic<? extends JavaFileObject>, T> mapper) {
-            return diagnostics.stream().map(mapper);
+            return diagnostics().stream().map(mapper);
         }
 
         protected void failExpectingMatchingDiagnostic(String format, Object... args) {
@@ -372,9 +384,7 @@ public final class CompilationSubject extends Subject {
     /** Assertions that a note, warning, or error was found in a given file. */
     public final class DiagnosticInFile extends DiagnosticAssertions {
 
-        private DiagnosticInFile(
-                String expectedDiagnostic,
-                Iterable<Diagnostic<? extends JavaFileObject>> diagnosticsWithMessage) {
+        private DiagnosticInFile(String expectedDiagnostic, BitSet diagnosticsWithMessage) {
             super(expectedDiagnostic, diagnosticsWithMessage);
         }
 
@@ -384,15 +394,8 @@ public final class CompilationSubject extends Subject {
         }
 
         /** Returns the diagnostics that are in the given file. Fails the test if none are found. */
-        private List<Diagnostic<? extends JavaFileObject>> findDiagnosticsInFile(
-                JavaFileObject expectedFile) {
-            String expectedFilePath = expectedFile.toUri().getPath();
-            List<Diagnostic<? extends JavaFileObject>> diagnosticsInFile =
-                    filterDiagnostics(
-                            diagnostic -> {
-                                JavaFileObject source = diagnostic.getSource();
-                                return source != null && source.toUri().getPath().equals(expectedFilePath);
-                            });
+        private BitSet findDiagnosticsInFile(JavaFileObject expectedFile) {
+            BitSet diagnosticsInFile = index().inFile(positions, DiagnosticIndex.path(expectedFile));
             if (diagnosticsInFile.isEmpty()) {
                 failExpectingMatchingDiagnostic(
                         " in %s, but found it in %s", expectedFile.getName(), sourceFilesWithDiagnostics());
@@ -453,13 +456,13 @@ public final class CompilationSubject extends Subject {
     public final class DiagnosticOnLine extends DiagnosticAssertions {
 
         private final LinesInFile linesInFile;
+        private final String path;
 
         private DiagnosticOnLine(
-                DiagnosticAssertions previous,
-                JavaFileObject file,
-                List<Diagnostic<? extends JavaFileObject>> diagnosticsInFile) {
+                DiagnosticAssertions previous, JavaFileObject file, BitSet diagnosticsInFile) {
             super(previous, diagnosticsInFile);
             this.linesInFile = new LinesInFile(file);
+            this.path = DiagnosticIndex.path(file);
         }
 
         /** Asserts that the note, warning, or error was found on a given line. */
@@ -509,10 +512,8 @@ public final class CompilationSubject extends Subject {
          *
          * @param expectedLine the expected line number
          */
-        private List<Diagnostic<? extends JavaFileObject>> findMatchingDiagnosticsOnLine(
-                long expectedLine) {
-            List<Diagnostic<? extends JavaFileObject>> diagnosticsOnLine =
-                    filterDiagnostics(diagnostic -> diagnostic.getLineNumber() == expectedLine);
+        private BitSet findMatchingDiagnosticsOnLine(long expectedLine) {
+            BitSet diagnosticsOnLine = index().onLine(positions, path, expectedLine);
             if (diagnosticsOnLine.isEmpty()) {
                 failExpectingMatchingDiagnostic(
                         " in %s on line:\n%s\nbut found it on line(s):\n%s",
@@ -534,7 +535,7 @@ public final class CompilationSubject extends Subject {
                 DiagnosticAssertions previous,
                 LinesInFile linesInFile,
                 long line,
-                List<Diagnostic<? extends JavaFileObject>> diagnosticsOnLine) {
+                BitSet diagnosticsOnLine) {
             super(previous, diagnosticsOnLine);
             this.linesInFile = linesInFile;
             this.line = line;
@@ -0,0 +1,225 @@
+package io.jbock.testing.compile;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The time that the compiler spent in each phase of a {@link Compilation}.
+ *
+ * <p>A phase usually runs several times, for example once for each source file or class, and the
+ * times of all runs are added up. Phases overlap: parsing and entering the files that annotation
+ * processors generated happens during {@linkplain #annotationProcessingRounds() annotation
+ * processing}, and classes are analyzed and generated one after another. Therefore the phases do
+ * not add up to the {@linkplain #total() total}.
+ *
+ * <p>CPU time is the time of the compiling thread. It is zero if the JVM cannot measure it.
+ */
+public final class CompilationTimings {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /** The timings of a compilation that did not run the compiler. */
+    static final CompilationTimings NONE =
+            new CompilationTimings(new EnumMap<>(Phase.class), List.of(), Timing.ZERO);
+
+    private final Map<Phase, Timing> phases;
+    private final List<Timing> annotationProcessingRounds;
+    private final Timing total;
+
+    private CompilationTimings(
+            Map<Phase, Timing> phases, List<Timing> annotationProcessingRounds, Timing total) {
+        this.phases = phases;
+        this.annotationProcessingRounds = annotationProcessingRounds;
+        this.total = total;
+    }
+
+    /** The time spent in a phase, or {@link Timing#ZERO} if the phase did not run. */
+    public Timing phase(Phase phase) {
+        return phases.getOrDefault(phase, Timing.ZERO);
+    }
+
+    /** The time spent in each annotation processing round, in order. */
+    public List<Timing> annotationProcessingRounds() {
+        return annotationProcessingRounds;
+    }
+
+    /** The time spent compiling, including the phases that are not measured separately. */
+    public Timing total() {
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("total: ").append(total);
+        for (Phase phase : Phase.values()) {
+            builder.append(", ").append(phase.name().toLowerCase()).append(": ").append(phase(phase));
+        }
+        for (int i = 0; i < annotationProcessingRounds.size(); i++) {
+            builder.append(", round ").append(i + 1).append(": ").append(annotationProcessingRounds.get(i));
+        }
+        return builder.toString();
+    }
+
+    /** A phase of the compiler. */
+    public enum Phase {
+
+        /** Parsing source files. */
+        PARSE,
+
+        /** Entering symbols of the parsed files. */
+        ENTER,
+
+        /** Attribution and flow analysis of classes. */
+        ANALYZE,
+
+        /** Generating class files. */
+        GENERATE,
+    }
+
+    /** Wall time and CPU time. */
+    public static final class Timing {
+
+        /** No time at all. */
+        public static final Timing ZERO = new Timing(Duration.ZERO, Duration.ZERO);
+
+        private final Duration wallTime;
+        private final Duration cpuTime;
+
+        private Timing(Duration wallTime, Duration cpuTime) {
+            this.wallTime = wallTime;
+            this.cpuTime = cpuTime;
+        }
+
+        /** The elapsed time. */
+        public Duration wallTime() {
+            return wallTime;
+        }
+
+        /** The CPU time of the compiling thread. */
+        public Duration cpuTime() {
+            return cpuTime;
+        }
+
+        Timing plus(Timing other) {
+            return new Timing(wallTime.plus(other.wallTime), cpuTime.plus(other.cpuTime));
+        }
+
+        @Override
+        public String toString() {
+            return wallTime.toMillis() + "ms (cpu " + cpuTime.toMillis() + "ms)";
+        }
+    }
+
+    /**
+     * Records the timings of one compilation. It must be {@linkplain #start() started} and
+     * {@linkplain #finish() finished} on the thread that runs the compiler.
+     */
+    static final class Recorder implements TaskListener {
+        private final Map<Phase, Stopwatch> phases = new EnumMap<>(Phase.class);
+        private final List<Timing> rounds = new ArrayList<>();
+        private final Stopwatch round = new Stopwatch();
+        private final Stopwatch total = new Stopwatch();
+
+        void start() {
+            total.start();
+        }
+
+        CompilationTimings finish() {
+            total.stop();
+            Map<Phase, Timing> result = new EnumMap<>(Phase.class);
+            phases.forEach((phase, stopwatch) -> result.put(phase, stopwatch.timing()));
+            return new CompilationTimings(
+                    Collections.unmodifiableMap(result), List.copyOf(rounds), total.timing());
+        }
+
+        @Override
+        public void started(TaskEvent event) {
+            if (event.getKind() == TaskEvent.Kind.ANNOTATION_PROCESSING_ROUND) {
+                round.start();
+                return;
+            }
+            Phase phase = phase(event.getKind());
+            if (phase != null) {
+                phases.computeIfAbsent(phase, p -> new Stopwatch()).start();
+            }
+        }
+
+        @Override
+        public void finished(TaskEvent event) {
+            if (event.getKind() == TaskEvent.Kind.ANNOTATION_PROCESSING_ROUND) {
+                round.stop();
+                rounds.add(round.timing());
+                round.reset();
+                return;
+            }
+            Phase phase = phase(event.getKind());
+            if (phase != null && phases.containsKey(phase)) {
+                phases.get(phase).stop();
+            }
+        }
+
+        private static Phase phase(TaskEvent.Kind kind) {
+            switch (kind) {
+                case PARSE:
+                    return Phase.PARSE;
+                case ENTER:
+                    return Phase.ENTER;
+                case ANALYZE:
+                    return Phase.ANALYZE;
+                case GENERATE:
+                    return Phase.GENERATE;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static long threadCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Adds up the time between starts and stops on the thread that runs the compiler. Nested starts
+     * are counted, because javac starts a phase for all files before it finishes any of them.
+     */
+    static final class Stopwatch {
+        private int depth;
+        private long wallStart;
+        private long cpuStart;
+        private long wallNanos;
+        private long cpuNanos;
+
+        void start() {
+            if (depth++ == 0) {
+                wallStart = System.nanoTime();
+                cpuStart = threadCpuTime();
+            }
+        }
+
+        void stop() {
+            if (depth > 0 && --depth == 0) {
+                wallNanos += System.nanoTime() - wallStart;
+                cpuNanos += threadCpuTime() - cpuStart;
+            }
+        }
+
+        void reset() {
+            depth = 0;
+            wallNanos = 0;
+            cpuNanos = 0;
+        }
+
+        Timing timing() {
+            return new Timing(Duration.ofNanos(wallNanos), Duration.ofNanos(cpuNanos));
+        }
+    }
+}
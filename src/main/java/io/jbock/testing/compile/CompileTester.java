@@ -115,9 +115,10 @@ public interface CompileTester {
     interface GeneratedPredicateClause<T> {
 
         /**
-         * <p><b>DO NOT USE</b>
-         *
-         * <p>Implementations are likely to throw {@link UnsupportedOperationException}.
+         * Checks that a source file with an equivalent <a
+         * href="https://en.wikipedia.org/wiki/Abstract_syntax_tree">AST</a> was generated for each of
+         * the given files, as {@link JavaFileObjectSubject#hasSourceEquivalentTo} does. The generated
+         * file is found by the top-level types that the expected file declares.
          *
          * @deprecated use {@link #containsLines} instead
          */
@@ -142,6 +143,24 @@ public interface CompileTester {
          */
         T containsLines(String qualifiedName, String... expectedPattern);
 
+        /**
+         * Like {@link #containsLines(String, JavaFileObject)}, but ignores comments, blank lines and
+         * whitespace between tokens.
+         */
+        T containsLinesIgnoringFormatting(String qualifiedName, JavaFileObject expectation);
+
+        /**
+         * Like {@link #containsLines(String, List)}, but ignores comments, blank lines and
+         * whitespace between tokens.
+         */
+        T containsLinesIgnoringFormatting(String qualifiedName, List<String> expectedPattern);
+
+        /**
+         * Like {@link #containsLines(String, String...)}, but ignores comments, blank lines and
+         * whitespace between tokens.
+         */
+        T containsLinesIgnoringFormatting(String qualifiedName, String... expectedPattern);
+
         /**
          * Checks that a file with equivalent kind and content was generated for each of the given
          * {@linkplain JavaFileObject files}.
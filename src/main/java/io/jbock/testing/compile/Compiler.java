@@ -16,6 +16,9 @@
 package io.jbock.testing.compile;
 
 import com.google.auto.value.AutoValue;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Trees;
 import io.jbock.testing.compile.Compilation.Status;
 
 import javax.annotation.processing.Processor;
@@ -23,13 +26,15 @@ import javax.tools.DiagnosticCollector;
 import javax.tools.JavaCompiler;
 import javax.tools.JavaCompiler.CompilationTask;
 import javax.tools.JavaFileObject;
-import javax.tools.StandardLocation;
+import javax.tools.StandardJavaFileManager;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -37,6 +42,13 @@ import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -56,7 +68,25 @@ public abstract class Compiler {
     /** Returns a {@link Compiler} that uses a given {@link JavaCompiler} instance. */
     public static Compiler compiler(JavaCompiler javaCompiler) {
         return new AutoValue_Compiler(
-                javaCompiler, List.of(), List.of(), Optional.empty(), Optional.empty());
+                javaCompiler,
+                List.of(),
+                List.of(),
+                List.of(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Long.MAX_VALUE,
+                false);
+    }
+
+    /**
+     * Closes the file managers that compilations keep for reuse, which releases the class path
+     * archives that they hold open. Later compilations open new file managers. Call this when the
+     * class path archives must be released before the JVM exits, for example in an {@code @AfterAll}
+     * method.
+     */
+    public static void closeSharedFileManagers() {
+        FileManagerPool.shared().closeIdle();
     }
 
     abstract JavaCompiler javaCompiler();
@@ -64,6 +94,12 @@ public abstract class Compiler {
     /** The annotation processors applied during compilation. */
     public abstract List<Processor> processors();
 
+    /**
+     * The factories of annotation processors that are applied during compilation. Each compilation
+     * creates its own processors.
+     */
+    public abstract List<Supplier<? extends Processor>> processorFactories();
+
     /** The options passed to the compiler. */
     public abstract List<String> options();
 
@@ -75,6 +111,22 @@ public abstract class Compiler {
      */
     public abstract Optional<List<File>> annotationProcessorPath();
 
+    /** The cache of compilation results. If not present, every compilation runs the compiler. */
+    public abstract Optional<CompilationCache> cache();
+
+    /**
+     * The number of bytes of generated files that each compilation keeps on the heap. Files that
+     * are generated after the budget is used up are kept in memory-mapped temporary files instead.
+     * {@link Long#MAX_VALUE} by default.
+     */
+    public abstract long outputHeapBudget();
+
+    /**
+     * Whether compilations measure their annotation processors, as in {@link
+     * Compilation#processorProfiles()}. {@code false} by default.
+     */
+    public abstract boolean processorProfiling();
+
     /**
      * Uses annotation processors during compilation. These replace any previously specified.
      *
@@ -95,7 +147,40 @@ public abstract class Compiler {
      */
     public final Compiler withProcessors(Iterable<? extends Processor> processors) {
         return copy(
-                Util.listOf(processors), options(), classPath(), annotationProcessorPath());
+                Util.listOf(processors), List.of(), options(), classPath(), annotationProcessorPath());
+    }
+
+    /**
+     * Uses annotation processors during compilation, which are created by the given factories at the
+     * start of each compilation. These replace any previously specified processors.
+     *
+     * <p>Unlike {@linkplain #withProcessors(Processor...) processor instances}, factories let the
+     * same compiler run any number of compilations, including concurrent ones.
+     *
+     * @return a new instance with the same options and the given processor factories
+     */
+    @SafeVarargs
+    public final Compiler withProcessorFactories(Supplier<? extends Processor>... processorFactories) {
+        return withProcessorFactories(Arrays.asList(processorFactories));
+    }
+
+    /**
+     * Uses annotation processors during compilation, which are created by the given factories at the
+     * start of each compilation. These replace any previously specified processors.
+     *
+     * <p>Unlike {@linkplain #withProcessors(Iterable) processor instances}, factories let the same
+     * compiler run any number of compilations, including concurrent ones.
+     *
+     * @return a new instance with the same options and the given processor factories
+     */
+    public final Compiler withProcessorFactories(
+            Iterable<? extends Supplier<? extends Processor>> processorFactories) {
+        return copy(
+                List.of(),
+                Util.listOf(processorFactories),
+                options(),
+                classPath(),
+                annotationProcessorPath());
     }
 
     /**
@@ -115,6 +200,7 @@ public abstract class Compiler {
     public final Compiler withOptions(Iterable<?> options) {
         return copy(
                 processors(),
+                processorFactories(),
                 Util.listOf(options).stream().map(Objects::toString).collect(Collectors.toList()),
                 classPath(),
                 annotationProcessorPath());
@@ -134,6 +220,7 @@ public abstract class Compiler {
     public final Compiler withClasspathFrom(ClassLoader classloader) {
         return copy(
                 processors(),
+                processorFactories(),
                 options(),
                 Optional.of(getClasspathFromClassloader(classloader)),
                 annotationProcessorPath());
@@ -143,6 +230,7 @@ public abstract class Compiler {
     public final Compiler withClasspath(Iterable<File> classPath) {
         return copy(
                 processors(),
+                processorFactories(),
                 options(),
                 Optional.of(Util.listOf(classPath)),
                 annotationProcessorPath());
@@ -155,11 +243,82 @@ public abstract class Compiler {
     public final Compiler withAnnotationProcessorPath(Iterable<File> annotationProcessorPath) {
         return copy(
                 processors(),
+                processorFactories(),
                 options(),
                 classPath(),
                 Optional.of(Util.listOf(annotationProcessorPath)));
     }
 
+    /**
+     * Looks up the results of compilations in {@code cache} before running the compiler, and adds
+     * the results of compilations that ran. See {@link CompilationCache} for when a cached result is
+     * used. A compiler with a cache must use {@linkplain #withProcessorFactories processor
+     * factories} instead of {@linkplain #withProcessors processor instances}.
+     *
+     * @return a new instance with the same options and the given cache
+     */
+    public final Compiler withCache(CompilationCache cache) {
+        return new AutoValue_Compiler(
+                javaCompiler(),
+                processors(),
+                processorFactories(),
+                options(),
+                classPath(),
+                annotationProcessorPath(),
+                Optional.of(cache),
+                outputHeapBudget(),
+                processorProfiling());
+    }
+
+    /**
+     * Limits the size of the generated files that each compilation keeps on the heap. Once the
+     * generated files of a compilation take up more than {@code bytes}, further files are written to
+     * temporary files and memory-mapped, so that they are read without copying them onto the heap.
+     * The temporary files are deleted right away; the mapped memory is released when the compilation
+     * is garbage collected.
+     *
+     * <p>This helps tests that keep many compilations with large generated files alive at the same
+     * time.
+     *
+     * @return a new instance with the same options and the given budget
+     */
+    public final Compiler withOutputHeapBudget(long bytes) {
+        Preconditions.checkArgument(bytes >= 0, "negative budget: %s", bytes);
+        return new AutoValue_Compiler(
+                javaCompiler(),
+                processors(),
+                processorFactories(),
+                options(),
+                classPath(),
+                annotationProcessorPath(),
+                cache(),
+                bytes,
+                processorProfiling());
+    }
+
+    /**
+     * Measures the time that each annotation processor spends, and the files that it creates. The
+     * results are in {@link Compilation#processorProfiles()}.
+     *
+     * <p>The compiler runs wrappers around the processors, so diagnostics that {@code javac} reports
+     * about a processor, such as an unsupported source version, name the wrapper instead of the
+     * processor.
+     *
+     * @return a new instance with the same options and processor profiling enabled
+     */
+    public final Compiler withProcessorProfiling() {
+        return new AutoValue_Compiler(
+                javaCompiler(),
+                processors(),
+                processorFactories(),
+                options(),
+                classPath(),
+                annotationProcessorPath(),
+                cache(),
+                outputHeapBudget(),
+                true);
+    }
+
     /**
      * Compiles Java source files.
      *
@@ -172,42 +331,264 @@ public abstract class Compiler {
     /**
      * Compiles Java source files.
      *
+     * <p>The underlying {@link javax.tools.StandardJavaFileManager} is reused by later compilations
+     * with the same options, class path and annotation processor path, so that the class path is
+     * only indexed once.
+     *
      * @return the results of the compilation
+     * @throws IllegalStateException if this compiler has both a {@linkplain #withCache cache} and
+     *     processor instances
      */
     public final Compilation compile(Iterable<? extends JavaFileObject> files) {
-        DiagnosticCollector<JavaFileObject> diagnosticCollector = new DiagnosticCollector<>();
-        InMemoryJavaFileManager fileManager =
-                new InMemoryJavaFileManager(
-                        javaCompiler().getStandardFileManager(diagnosticCollector, Locale.getDefault(), UTF_8));
-        fileManager.addSourceFiles(files);
-        classPath().ifPresent(path -> setLocation(fileManager, StandardLocation.CLASS_PATH, path));
-        annotationProcessorPath()
-                .ifPresent(
-                        path -> setLocation(fileManager, StandardLocation.ANNOTATION_PROCESSOR_PATH, path));
-        CompilationTask task =
-                javaCompiler()
-                        .getTask(
-                                null, // use the default because old versions of javac log some output on stderr
-                                fileManager,
-                                diagnosticCollector,
-                                options(),
-                                Set.of(),
-                                files);
-        task.setProcessors(processors());
-        boolean succeeded = task.call();
-        Compilation compilation =
-                new Compilation(
-                        this,
-                        files,
-                        succeeded,
-                        diagnosticCollector.getDiagnostics(),
-                        fileManager.getOutputFiles());
-        if (compilation.status().equals(Status.FAILURE) && compilation.errors().isEmpty()) {
-            throw new CompilationFailureException(compilation);
+        List<JavaFileObject> sourceFiles = Util.listOf(files);
+        // the processors that the factories created so far, by the index of the factory
+        Processor[] created = new Processor[processorFactories().size()];
+        if (cache().isEmpty()) {
+            return compile(sourceFiles, created);
+        }
+        Preconditions.checkState(
+                processors().isEmpty(),
+                "the state of processor instances is not part of the cache key, "
+                        + "so a compiler with a cache needs processor factories");
+        List<Class<?>> processorClasses = new ArrayList<>();
+        for (int i = 0; i < created.length; i++) {
+            Supplier<? extends Processor> processorFactory = processorFactories().get(i);
+            Optional<Class<?>> processorClass = CompilationCache.processorClass(processorFactory);
+            if (processorClass.isPresent()) {
+                processorClasses.add(processorClass.get());
+            } else {
+                created[i] = createProcessor(processorFactory);
+                CompilationCache.putProcessorClass(processorFactory, created[i].getClass());
+                processorClasses.add(created[i].getClass());
+            }
+        }
+        CompilationCache cache = cache().get();
+        String key = CompilationCache.key(this, sourceFiles, processorClasses);
+        Optional<Compilation> cached = cache.get(key, this, sourceFiles);
+        if (cached.isPresent()) {
+            return cached.get();
         }
+        Compilation compilation = compile(sourceFiles, created);
+        cache.put(key, compilation);
         return compilation;
     }
 
+    private Compilation compile(List<JavaFileObject> files, Processor[] created) {
+        List<Processor> processors = new ArrayList<>(processors());
+        List<String> processorNames =
+                processors().stream().map(String::valueOf).collect(Collectors.toList());
+        for (int i = 0; i < created.length; i++) {
+            Processor processor = created[i] != null ? created[i] : createProcessor(processorFactories().get(i));
+            processors.add(processor);
+            processorNames.add(processor.getClass().getName());
+        }
+        return compile(files, processors, processorNames);
+    }
+
+    private static Processor createProcessor(Supplier<? extends Processor> processorFactory) {
+        return Objects.requireNonNull(processorFactory.get(), "processor factory returned null");
+    }
+
+    private Compilation compile(
+            List<JavaFileObject> files, List<Processor> processors, List<String> processorNames) {
+        DiagnosticCollector<JavaFileObject> diagnosticCollector = new DiagnosticCollector<>();
+        try (FileManagerPool.Lease lease =
+                     FileManagerPool.shared()
+                             .acquire(javaCompiler(), fileManagerKey(), diagnosticCollector)) {
+            InMemoryJavaFileManager fileManager = new InMemoryJavaFileManager(lease.fileManager(), outputHeapBudget());
+            fileManager.addSourceFiles(files);
+            CompilationTask task =
+                    javaCompiler()
+                            .getTask(
+                                    null, // use the default because old versions of javac log some output on stderr
+                                    fileManager,
+                                    diagnosticCollector,
+                                    options(),
+                                    Set.of(),
+                                    files);
+            ProcessorProfile.Profiler profiler = new ProcessorProfile.Profiler();
+            if (processorProfiling()) {
+                task.setProcessors(profiler.wrap(processors, processorNames));
+                fileManager.setOutputListener(profiler::fileCreated);
+            } else {
+                task.setProcessors(processors);
+            }
+            CompilationTimings.Recorder timings = new CompilationTimings.Recorder();
+            if (task instanceof JavacTask) {
+                ((JavacTask) task).addTaskListener(timings);
+            }
+            timings.start();
+            boolean succeeded = task.call();
+            CompilationTimings compilationTimings = timings.finish();
+            lease.recycle();
+            Compilation compilation =
+                    new Compilation(
+                            this,
+                            processorNames,
+                            files,
+                            succeeded,
+                            diagnosticCollector.getDiagnostics().stream()
+                                    .map(DiagnosticSnapshot::copyOf)
+                                    .collect(Collectors.toList()),
+                            fileManager.getOutputFiles(),
+                            compilationTimings,
+                            profiler.profiles());
+            if (compilation.status().equals(Status.FAILURE) && compilation.errors().isEmpty()) {
+                throw new CompilationFailureException(compilation);
+            }
+            return compilation;
+        }
+    }
+
+    /**
+     * Parses Java source files, without compiling them.
+     *
+     * @return the syntax trees and the syntax errors
+     */
+    public final ParseResult parse(JavaFileObject... files) {
+        return parse(Arrays.asList(files));
+    }
+
+    /**
+     * Parses Java source files, without compiling them. Only the parser runs: names are not entered
+     * or resolved, no code is generated, and annotation processors do not run. Checks that only need
+     * the syntax of the files, or the names of the types they declare, are therefore much faster
+     * than a {@linkplain #compile compilation}. The {@linkplain #options() options} apply, so that
+     * for example {@code --release} selects the language version.
+     *
+     * @return the syntax trees and the syntax errors
+     * @throws IllegalStateException if the {@link JavaCompiler} is not {@code javac}
+     */
+    public final ParseResult parse(Iterable<? extends JavaFileObject> files) {
+        List<JavaFileObject> sourceFiles = Util.listOf(files);
+        DiagnosticCollector<JavaFileObject> diagnosticCollector = new DiagnosticCollector<>();
+        // The trees keep the task, and with it the file manager, reachable, so the file manager is not
+        // pooled. Parsing does not read the class path, so a new file manager costs little.
+        try (StandardJavaFileManager standardFileManager =
+                     javaCompiler().getStandardFileManager(diagnosticCollector, Locale.getDefault(), UTF_8)) {
+            InMemoryJavaFileManager fileManager = new InMemoryJavaFileManager(standardFileManager);
+            fileManager.addSourceFiles(sourceFiles);
+            CompilationTask task =
+                    javaCompiler()
+                            .getTask(
+                                    null, // use the default because old versions of javac log some output on stderr
+                                    fileManager,
+                                    diagnosticCollector,
+                                    options(),
+                                    Set.of(),
+                                    sourceFiles);
+            Preconditions.checkState(
+                    task instanceof JavacTask,
+                    "parsing requires javac, but the compiler is %s",
+                    javaCompiler().getClass().getName());
+            JavacTask javacTask = (JavacTask) task;
+            List<CompilationUnitTree> compilationUnits = new ArrayList<>(sourceFiles.size());
+            javacTask.parse().forEach(compilationUnits::add);
+            return new ParseResult(
+                    sourceFiles,
+                    compilationUnits,
+                    Trees.instance(javacTask).getSourcePositions(),
+                    diagnosticCollector.getDiagnostics().stream()
+                            .map(DiagnosticSnapshot::copyOf)
+                            .collect(Collectors.toList()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileManagerPool.Key fileManagerKey() {
+        return FileManagerPool.Key.create(
+                javaCompiler(),
+                options(),
+                classPath(),
+                annotationProcessorPath(),
+                UTF_8,
+                Locale.getDefault());
+    }
+
+    /**
+     * Compiles Java source files without blocking the calling thread. The compilation runs on a
+     * default executor, which uses a new virtual thread for each compilation on JDK 21 and later, and
+     * a pool of daemon threads otherwise.
+     *
+     * @return a future that completes with the results of the compilation, or exceptionally if
+     *     {@link #compile} would have thrown
+     */
+    public final CompletableFuture<Compilation> compileAsync(JavaFileObject... files) {
+        return compileAsync(Arrays.asList(files));
+    }
+
+    /**
+     * Compiles Java source files without blocking the calling thread. The compilation runs on a
+     * default executor, which uses a new virtual thread for each compilation on JDK 21 and later, and
+     * a pool of daemon threads otherwise.
+     *
+     * @return a future that completes with the results of the compilation, or exceptionally if
+     *     {@link #compile} would have thrown
+     */
+    public final CompletableFuture<Compilation> compileAsync(Iterable<? extends JavaFileObject> files) {
+        return compileAsync(DefaultExecutor.INSTANCE, files);
+    }
+
+    /**
+     * Compiles Java source files on the given executor.
+     *
+     * <p>Note that most annotation processors cannot be reused for more than one compilation, so
+     * compilations that run at the same time should use {@linkplain #withProcessorFactories
+     * processor factories} instead of sharing processor instances.
+     *
+     * @return a future that completes with the results of the compilation, or exceptionally if
+     *     {@link #compile} would have thrown
+     */
+    public final CompletableFuture<Compilation> compileAsync(
+            Executor executor, Iterable<? extends JavaFileObject> files) {
+        List<JavaFileObject> sourceFiles = List.copyOf(Util.listOf(files));
+        return CompletableFuture.supplyAsync(() -> compile(sourceFiles), executor);
+    }
+
+    /**
+     * Compiles several independent sets of Java source files in parallel, on a pool with one thread
+     * per available processor. Compilations with the same configuration share the indexed class path,
+     * but nothing else.
+     *
+     * <p>Annotation processor instances cannot be shared between compilations that run at the same
+     * time, so this compiler must not have any {@linkplain #processors() processors} unless there is
+     * at most one set of source files. Use {@linkplain #withProcessorFactories processor factories}
+     * instead, which create new processors for each compilation.
+     *
+     * @return the results of the compilations, in the order of {@code sourceSets}
+     * @throws IllegalStateException if this compiler has processors and there is more than one set
+     *     of source files
+     */
+    public final List<Compilation> compileAll(
+            Collection<? extends Iterable<? extends JavaFileObject>> sourceSets) {
+        Preconditions.checkState(
+                processors().isEmpty() || sourceSets.size() <= 1,
+                "annotation processors cannot be shared by concurrent compilations, "
+                        + "use withProcessorFactories instead: %s",
+                processors());
+        List<CompletableFuture<Compilation>> futures = new ArrayList<>(sourceSets.size());
+        for (Iterable<? extends JavaFileObject> files : sourceSets) {
+            futures.add(compileAsync(ParallelExecutor.INSTANCE, files));
+        }
+        List<Compilation> compilations = new ArrayList<>(futures.size());
+        for (CompletableFuture<Compilation> future : futures) {
+            try {
+                compilations.add(future.join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+        return compilations;
+    }
+
     // visible for testing
     static final ClassLoader platformClassLoader = getPlatformClassLoader();
 
@@ -265,22 +646,46 @@ public abstract class Compiler {
         return classpaths.stream().map(File::new).collect(Collectors.toList());
     }
 
-    private static void setLocation(
-            InMemoryJavaFileManager fileManager, StandardLocation location, List<File> path) {
-        try {
-            fileManager.setLocation(location, path);
-        } catch (IOException e) {
-            // impossible by specification
-            throw new UncheckedIOException(e);
+    /** The executor for {@link #compileAsync(Iterable)}, created on first use. */
+    private static final class DefaultExecutor {
+        static final Executor INSTANCE = create();
+
+        private static Executor create() {
+            try {
+                // JDK >= 21
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // JDK < 21
+                AtomicInteger threadNumber = new AtomicInteger();
+                return Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "compile-testing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
         }
     }
 
+    /** The executor for {@link #compileAll}, created on first use. */
+    private static final class ParallelExecutor {
+        static final Executor INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
     private Compiler copy(
             List<Processor> processors,
+            List<Supplier<? extends Processor>> processorFactories,
             List<String> options,
             Optional<List<File>> classPath,
             Optional<List<File>> annotationProcessorPath) {
         return new AutoValue_Compiler(
-                javaCompiler(), processors, options, classPath, annotationProcessorPath);
+                javaCompiler(),
+                processors,
+                processorFactories,
+                options,
+                classPath,
+                annotationProcessorPath,
+                cache(),
+                outputHeapBudget(),
+                processorProfiling());
     }
 }
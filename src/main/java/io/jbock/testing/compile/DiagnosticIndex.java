@@ -0,0 +1,105 @@
+package io.jbock.testing.compile;
+
+import javax.tools.Diagnostic;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The diagnostics of a {@link Compilation}, indexed by kind, source file and line.
+ *
+ * <p>Sets of diagnostics are represented as {@link BitSet}s of their positions in {@link
+ * Compilation#diagnostics()}, so that narrowing a set to a file or line costs a few word operations
+ * instead of a pass over the diagnostics. Messages are formatted once.
+ */
+final class DiagnosticIndex {
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+    private final String[] messages;
+    private final Map<Kind, BitSet> byKind = new EnumMap<>(Kind.class);
+    private final Map<String, BitSet> byFile = new HashMap<>();
+    private final Map<String, Map<Long, BitSet>> byLine = new HashMap<>();
+    private final Map<Set<Kind>, List<Diagnostic<? extends JavaFileObject>>> ofKinds =
+            new ConcurrentHashMap<>();
+
+    DiagnosticIndex(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        this.diagnostics = diagnostics;
+        this.messages = new String[diagnostics.size()];
+        for (int i = 0; i < diagnostics.size(); i++) {
+            Diagnostic<? extends JavaFileObject> diagnostic = diagnostics.get(i);
+            messages[i] = diagnostic.getMessage(null);
+            byKind.computeIfAbsent(diagnostic.getKind(), kind -> new BitSet()).set(i);
+            String path = path(diagnostic.getSource());
+            if (path != null) {
+                byFile.computeIfAbsent(path, p -> new BitSet()).set(i);
+                byLine.computeIfAbsent(path, p -> new HashMap<>())
+                        .computeIfAbsent(diagnostic.getLineNumber(), line -> new BitSet())
+                        .set(i);
+            }
+        }
+    }
+
+    /** Returns the path by which diagnostics in {@code file} are indexed. */
+    static String path(JavaFileObject file) {
+        return file == null ? null : file.toUri().getPath();
+    }
+
+    /** Returns the diagnostics of the given kinds, in their original order. */
+    List<Diagnostic<? extends JavaFileObject>> ofKinds(Kind kind, Kind... more) {
+        Set<Kind> kinds = EnumSet.of(kind, more);
+        return ofKinds.computeIfAbsent(kinds, k -> Collections.unmodifiableList(list(bitsOfKinds(k))));
+    }
+
+    /** Returns the positions of the diagnostics of the given kinds. */
+    BitSet bitsOfKinds(Set<Kind> kinds) {
+        BitSet result = new BitSet();
+        for (Kind kind : kinds) {
+            BitSet ofKind = byKind.get(kind);
+            if (ofKind != null) {
+                result.or(ofKind);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the positions in {@code among} of diagnostics in the file with the given path. */
+    BitSet inFile(BitSet among, String path) {
+        return intersect(among, byFile.get(path));
+    }
+
+    /** Returns the positions in {@code among} of diagnostics on a line of a file. */
+    BitSet onLine(BitSet among, String path, long line) {
+        return intersect(among, byLine.getOrDefault(path, Map.of()).get(line));
+    }
+
+    private static BitSet intersect(BitSet among, BitSet other) {
+        BitSet result = new BitSet();
+        if (other != null) {
+            result.or(other);
+            result.and(among);
+        }
+        return result;
+    }
+
+    /** Returns the message of the diagnostic at {@code position}, formatted in the default locale. */
+    String message(int position) {
+        return messages[position];
+    }
+
+    /** Returns the diagnostics at the given positions, in order. */
+    List<Diagnostic<? extends JavaFileObject>> list(BitSet positions) {
+        List<Diagnostic<? extends JavaFileObject>> result = new ArrayList<>(positions.cardinality());
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+            result.add(diagnostics.get(i));
+        }
+        return result;
+    }
+}
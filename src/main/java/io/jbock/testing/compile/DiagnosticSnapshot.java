@@ -0,0 +1,118 @@
+package io.jbock.testing.compile;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.util.Locale;
+
+/**
+ * A {@link Diagnostic} that holds plain values instead of references into the compiler. The message
+ * is formatted once, in the default locale.
+ *
+ * <p>The diagnostics that {@code javac} reports refer to syntax trees, symbols and, through them, to
+ * the whole compiler state. A {@link Compilation} keeps snapshots instead, so that the compiler can
+ * be garbage collected as soon as the compilation is done.
+ */
+final class DiagnosticSnapshot implements Diagnostic<JavaFileObject> {
+    private final Kind kind;
+    private final JavaFileObject source;
+    private final long position;
+    private final long startPosition;
+    private final long endPosition;
+    private final long lineNumber;
+    private final long columnNumber;
+    private final String code;
+    private final String message;
+    private final String description;
+
+    DiagnosticSnapshot(
+            Kind kind,
+            JavaFileObject source,
+            long position,
+            long startPosition,
+            long endPosition,
+            long lineNumber,
+            long columnNumber,
+            String code,
+            String message,
+            String description) {
+        this.kind = kind;
+        this.source = source;
+        this.position = position;
+        this.startPosition = startPosition;
+        this.endPosition = endPosition;
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+        this.code = code;
+        this.message = message;
+        this.description = description;
+    }
+
+    /** Returns a snapshot of {@code diagnostic}. */
+    static DiagnosticSnapshot copyOf(Diagnostic<? extends JavaFileObject> diagnostic) {
+        if (diagnostic instanceof DiagnosticSnapshot) {
+            return (DiagnosticSnapshot) diagnostic;
+        }
+        return new DiagnosticSnapshot(
+                diagnostic.getKind(),
+                diagnostic.getSource(),
+                diagnostic.getPosition(),
+                diagnostic.getStartPosition(),
+                diagnostic.getEndPosition(),
+                diagnostic.getLineNumber(),
+                diagnostic.getColumnNumber(),
+                diagnostic.getCode(),
+                diagnostic.getMessage(null),
+                diagnostic.toString());
+    }
+
+    @Override
+    public Kind getKind() {
+        return kind;
+    }
+
+    @Override
+    public JavaFileObject getSource() {
+        return source;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public long getStartPosition() {
+        return startPosition;
+    }
+
+    @Override
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    @Override
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public long getColumnNumber() {
+        return columnNumber;
+    }
+
+    @Override
+    public String getCode() {
+        return code;
+    }
+
+    /** Returns the message in the default locale, regardless of {@code locale}. */
+    @Override
+    public String getMessage(Locale locale) {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,338 @@
+package io.jbock.testing.compile;
+
+import com.google.auto.value.AutoValue;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A pool of {@link StandardJavaFileManager}s that are shared by compilations with the same
+ * configuration.
+ *
+ * <p>Creating a standard file manager is cheap, but the first compilation that uses it opens and
+ * indexes every jar on the class path and the platform image. Reusing the file manager lets later
+ * compilations skip that work. A file manager is only ever used by one compilation at a time: it is
+ * {@linkplain #acquire acquired} before the compilation, and either {@linkplain Lease#recycle()
+ * recycled} or {@linkplain Lease#close() closed} afterwards.
+ *
+ * <p>The pool is bounded. File managers that do not fit, or that belong to the least recently used
+ * configuration when too many configurations are in use, are closed, which releases their open
+ * archives.
+ *
+ * <p>The {@linkplain #shared() shared pool} belongs to {@link Compiler}. Its idle file managers are
+ * closed by {@link Compiler#closeSharedFileManagers()}.
+ */
+final class FileManagerPool {
+
+    private static final int MAX_CONFIGURATIONS = 32;
+
+    private static final FileManagerPool SHARED =
+            new FileManagerPool(MAX_CONFIGURATIONS, Runtime.getRuntime().availableProcessors());
+
+    /** Returns the pool that is used by {@link Compiler#compile}. */
+    static FileManagerPool shared() {
+        return SHARED;
+    }
+
+    private final int maxConfigurations;
+    private final int maxIdlePerConfiguration;
+
+    // access order, so that the eldest entry is the least recently used configuration
+    private final Map<Key, Deque<PooledFileManager>> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+    private boolean closed;
+    private long hits;
+
+    FileManagerPool(int maxConfigurations, int maxIdlePerConfiguration) {
+        this.maxConfigurations = maxConfigurations;
+        this.maxIdlePerConfiguration = maxIdlePerConfiguration;
+    }
+
+    /**
+     * Returns a file manager for the given configuration, creating it with {@code javaCompiler} if
+     * none is idle. Diagnostics that the file manager reports are sent to {@code diagnosticListener}
+     * until the lease ends.
+     */
+    Lease acquire(
+            JavaCompiler javaCompiler,
+            Key key,
+            DiagnosticListener<? super JavaFileObject> diagnosticListener) {
+        PooledFileManager pooled = pollIdle(key);
+        if (pooled == null) {
+            pooled = new PooledFileManager(javaCompiler, key);
+        }
+        pooled.listener.delegate = diagnosticListener;
+        return new Lease(this, pooled);
+    }
+
+    /** Closes all idle file managers. File managers that are currently leased are closed on return. */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        closeIdle();
+    }
+
+    /**
+     * Closes all idle file managers, but keeps pooling the file managers of later compilations. File
+     * managers that are currently leased are not affected.
+     */
+    void closeIdle() {
+        List<PooledFileManager> toClose;
+        synchronized (this) {
+            toClose = drain(idle.values().iterator());
+        }
+        toClose.forEach(PooledFileManager::close);
+    }
+
+    /** The number of times that an idle file manager was reused. Visible for testing. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** The number of file managers that are currently idle. Visible for testing. */
+    synchronized int idleCount() {
+        return idle.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    private synchronized PooledFileManager pollIdle(Key key) {
+        Deque<PooledFileManager> deque = idle.get(key);
+        PooledFileManager pooled = deque == null ? null : deque.pollFirst();
+        if (pooled != null) {
+            hits++;
+        }
+        return pooled;
+    }
+
+    private void giveBack(PooledFileManager pooled) {
+        List<PooledFileManager> toClose = new ArrayList<>();
+        synchronized (this) {
+            Deque<PooledFileManager> deque =
+                    closed ? null : idle.computeIfAbsent(pooled.key, k -> new ArrayDeque<>());
+            if (deque == null || deque.size() >= maxIdlePerConfiguration) {
+                toClose.add(pooled);
+            } else {
+                deque.addFirst(pooled);
+            }
+            Iterator<Deque<PooledFileManager>> eldest = idle.values().iterator();
+            for (int excess = idle.size() - maxConfigurations; excess > 0; excess--) {
+                toClose.addAll(eldest.next());
+                eldest.remove();
+            }
+        }
+        toClose.forEach(PooledFileManager::close);
+    }
+
+    private static List<PooledFileManager> drain(Iterator<Deque<PooledFileManager>> deques) {
+        List<PooledFileManager> result = new ArrayList<>();
+        while (deques.hasNext()) {
+            result.addAll(deques.next());
+            deques.remove();
+        }
+        return result;
+    }
+
+    /**
+     * The configuration of a pooled file manager. Compiler options are part of the key because
+     * {@code javac} passes file manager options such as {@code --release} or {@code -classpath} to the
+     * file manager, which changes its state.
+     *
+     * <p>The compiler is identified by its class, since {@link
+     * javax.tools.ToolProvider#getSystemJavaCompiler()} returns a new instance on every call.
+     */
+    @AutoValue
+    abstract static class Key {
+        abstract Class<? extends JavaCompiler> compilerClass();
+
+        abstract List<String> options();
+
+        abstract Optional<List<File>> classPath();
+
+        abstract Optional<List<File>> annotationProcessorPath();
+
+        abstract Charset charset();
+
+        abstract Locale locale();
+
+        static Key create(
+                JavaCompiler javaCompiler,
+                List<String> options,
+                Optional<List<File>> classPath,
+                Optional<List<File>> annotationProcessorPath,
+                Charset charset,
+                Locale locale) {
+            return new AutoValue_FileManagerPool_Key(
+                    javaCompiler.getClass(),
+                    List.copyOf(options), classPath, annotationProcessorPath, charset, locale);
+        }
+    }
+
+    /** Exclusive use of a pooled file manager by one compilation. */
+    static final class Lease implements AutoCloseable {
+        private final FileManagerPool pool;
+        private final PooledFileManager pooled;
+        private boolean done;
+
+        private Lease(FileManagerPool pool, PooledFileManager pooled) {
+            this.pool = pool;
+            this.pooled = pooled;
+        }
+
+        StandardJavaFileManager fileManager() {
+            Preconditions.checkState(!done, "lease has ended");
+            return pooled.fileManager;
+        }
+
+        /**
+         * Resets the file manager and returns it to the pool. Only call this after a compilation that
+         * completed normally.
+         */
+        void recycle() {
+            if (done) {
+                return;
+            }
+            done = true;
+            pooled.listener.delegate = null;
+            try {
+                pooled.fileManager.flush();
+                if (!pooled.restoreLocations()) {
+                    pooled.close();
+                    return;
+                }
+            } catch (IOException e) {
+                pooled.close();
+                return;
+            }
+            pool.giveBack(pooled);
+        }
+
+        /** Closes the file manager, unless it was {@linkplain #recycle() recycled}. */
+        @Override
+        public void close() {
+            if (done) {
+                return;
+            }
+            done = true;
+            pooled.listener.delegate = null;
+            pooled.close();
+        }
+    }
+
+    /**
+     * A file manager and the search paths that its key gives it. A compilation can change these
+     * paths, for example through a {@code -classpath} option, so they are restored when the file
+     * manager is recycled. Options in the key set the same paths again in the next compilation.
+     *
+     * <p>A search path that was not set cannot be unset again: setting it to {@code null} makes it
+     * empty, and {@code javac} treats an empty source path differently from a missing one. A file
+     * manager in which such a path was set is closed instead of recycled.
+     */
+    private static final class PooledFileManager {
+        private static final List<StandardLocation> SEARCH_PATHS = List.of(
+                StandardLocation.CLASS_PATH,
+                StandardLocation.SOURCE_PATH,
+                StandardLocation.ANNOTATION_PROCESSOR_PATH);
+
+        final Key key;
+        final SwitchingDiagnosticListener listener = new SwitchingDiagnosticListener();
+        final StandardJavaFileManager fileManager;
+        private final Map<StandardLocation, List<File>> searchPaths =
+                new EnumMap<>(StandardLocation.class);
+
+        PooledFileManager(JavaCompiler javaCompiler, Key key) {
+            this.key = key;
+            this.fileManager =
+                    javaCompiler.getStandardFileManager(listener, key.locale(), key.charset());
+            key.classPath().ifPresent(path -> setLocation(StandardLocation.CLASS_PATH, path));
+            key.annotationProcessorPath()
+                    .ifPresent(path -> setLocation(StandardLocation.ANNOTATION_PROCESSOR_PATH, path));
+            for (StandardLocation location : SEARCH_PATHS) {
+                searchPaths.put(location, getLocation(location));
+            }
+        }
+
+        /**
+         * Sets the search paths that have changed since the file manager was created back to their
+         * initial value. Unchanged paths keep the directory listings that the file manager has cached.
+         *
+         * @return {@code false} if a search path that was not set has been set
+         */
+        boolean restoreLocations() throws IOException {
+            for (Map.Entry<StandardLocation, List<File>> entry : searchPaths.entrySet()) {
+                List<File> current = getLocation(entry.getKey());
+                if (Objects.equals(current, entry.getValue())) {
+                    continue;
+                }
+                if (entry.getValue() == null) {
+                    return false;
+                }
+                fileManager.setLocation(entry.getKey(), entry.getValue());
+            }
+            return true;
+        }
+
+        /** Returns the search path for {@code location}, or {@code null} if it is not set. */
+        private List<File> getLocation(StandardLocation location) {
+            Iterable<? extends File> path = fileManager.getLocation(location);
+            if (path == null) {
+                return null;
+            }
+            List<File> result = new ArrayList<>();
+            path.forEach(result::add);
+            return result;
+        }
+
+        private void setLocation(StandardLocation location, List<File> path) {
+            try {
+                fileManager.setLocation(location, path);
+            } catch (IOException e) {
+                // impossible by specification
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() {
+            try {
+                fileManager.close();
+            } catch (IOException ignored) {
+                // nothing left to release
+            }
+        }
+    }
+
+    /**
+     * The diagnostic listener of a pooled file manager. A file manager keeps the listener it was
+     * created with, so this forwards to the listener of the current lease.
+     */
+    private static final class SwitchingDiagnosticListener
+            implements DiagnosticListener<JavaFileObject> {
+        volatile DiagnosticListener<? super JavaFileObject> delegate;
+
+        @Override
+        public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+            DiagnosticListener<? super JavaFileObject> current = delegate;
+            if (current != null) {
+                current.report(diagnostic);
+            }
+        }
+    }
+}
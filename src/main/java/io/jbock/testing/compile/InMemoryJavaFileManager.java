@@ -30,17 +30,26 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.net.URI;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.StringJoiner;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * A file manager implementation that stores all output in memory.
  *
@@ -48,26 +57,36 @@ import java.util.StringJoiner;
  */
 // TODO(gak): under java 1.7 this could all be done with a PathFileManager
 final class InMemoryJavaFileManager extends ForwardingStandardJavaFileManager {
-    private final Map<URI, JavaFileObject> inMemoryOutputs = new LinkedHashMap<>();
+    private final OutputIndex inMemoryOutputs;
+
+    private final InputIndex inMemoryInputs = new InputIndex();
 
-    private final Map<URI, JavaFileObject> inMemoryInputs = new HashMap<>();
+    private volatile Runnable outputListener = () -> {};
 
     InMemoryJavaFileManager(StandardJavaFileManager fileManager) {
+        this(fileManager, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a file manager that keeps up to {@code outputHeapBudget} bytes of outputs on the heap,
+     * and maps further outputs from temporary files.
+     */
+    InMemoryJavaFileManager(StandardJavaFileManager fileManager, long outputHeapBudget) {
         super(fileManager);
+        this.inMemoryOutputs = new OutputIndex(new HeapBudget(outputHeapBudget));
     }
 
-    private static URI uriForFileObject(Location location, String packageName, String relativeName) {
-        StringBuilder uri = new StringBuilder("mem:///").append(location.getName()).append('/');
-        if (!packageName.isEmpty()) {
-            uri.append(packageName.replace('.', '/')).append('/');
-        }
-        uri.append(relativeName);
-        return URI.create(uri.toString());
+    /** Calls {@code listener} whenever the compiler or an annotation processor opens an output file. */
+    void setOutputListener(Runnable listener) {
+        this.outputListener = listener;
     }
 
-    private static URI uriForJavaFileObject(Location location, String className, Kind kind) {
-        return URI.create(
-                "mem:///" + location.getName() + '/' + className.replace('.', '/') + kind.extension);
+    private static String pathForFileObject(String packageName, String relativeName) {
+        return packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + '/' + relativeName;
+    }
+
+    private static String pathForJavaFileObject(String className, Kind kind) {
+        return className.replace('.', '/') + kind.extension;
     }
 
     @Override
@@ -79,11 +98,49 @@ final class InMemoryJavaFileManager extends ForwardingStandardJavaFileManager {
         return a.toUri().equals(b.toUri());
     }
 
+    /**
+     * Lists output locations from memory, without asking the delegate, which would look for them on
+     * disk. In-memory inputs are not listed: the compiler already knows them as compilation units,
+     * and their paths need not match their packages.
+     */
+    @Override
+    public Iterable<JavaFileObject> list(
+            Location location, String packageName, Set<Kind> kinds, boolean recurse) throws IOException {
+        if (location.isOutputLocation()) {
+            return inMemoryOutputs.list(location, packageName.replace('.', '/'), kinds, recurse);
+        }
+        return super.list(location, packageName, kinds, recurse);
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof InMemoryJavaFileObject) {
+            // mem:///LOCATION/package/path/Name.extension
+            String outputPath = file.toUri().getPath();
+            return binaryName(outputPath.substring(outputPath.indexOf('/', 1) + 1), file.getKind());
+        }
+        URI uri = file.toUri();
+        String path = uri.getPath();
+        if (path != null && (uri.getScheme() == null || uri.getScheme().equals("mem"))
+                && inMemoryInputs.contains(file)) {
+            // as created by JavaFileObjects.forSourceString: package/path/Name.java
+            // Other URIs, such as the file: URIs of resources, have paths that are not package paths.
+            return binaryName(path.startsWith("/") ? path.substring(1) : path, file.getKind());
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    private static String binaryName(String path, Kind kind) {
+        String withoutExtension =
+                path.endsWith(kind.extension) ? path.substring(0, path.length() - kind.extension.length()) : path;
+        return withoutExtension.replace('/', '.');
+    }
+
     @Override
     public FileObject getFileForInput(
             Location location, String packageName, String relativeName) throws IOException {
         if (location.isOutputLocation()) {
-            return inMemoryOutputs.get(uriForFileObject(location, packageName, relativeName));
+            return inMemoryOutputs.get(location, pathForFileObject(packageName, relativeName));
         }
         Optional<JavaFileObject> inMemoryInput = findInMemoryInput(packageName, relativeName);
         if (inMemoryInput.isPresent()) {
@@ -96,20 +153,20 @@ final class InMemoryJavaFileManager extends ForwardingStandardJavaFileManager {
     public JavaFileObject getJavaFileForInput(
             Location location, String className, Kind kind) throws IOException {
         if (location.isOutputLocation()) {
-            return inMemoryOutputs.get(uriForJavaFileObject(location, className, kind));
+            return inMemoryOutputs.get(location, pathForJavaFileObject(className, kind));
         }
-        Optional<JavaFileObject> inMemoryInput = findInMemoryInput(className);
+        Optional<JavaFileObject> inMemoryInput = findInMemoryInput(className, kind);
         if (inMemoryInput.isPresent()) {
             return inMemoryInput.get();
         }
         return super.getJavaFileForInput(location, className, kind);
     }
 
-    private Optional<JavaFileObject> findInMemoryInput(String className) {
+    private Optional<JavaFileObject> findInMemoryInput(String className, Kind kind) {
         int lastDot = className.lastIndexOf('.');
         return findInMemoryInput(
-                lastDot == -1 ? "" : className.substring(0, lastDot - 1),
-                className.substring(lastDot + 1) + ".java");
+                lastDot == -1 ? "" : className.substring(0, lastDot),
+                className.substring(lastDot + 1) + kind.extension);
     }
 
     private Optional<JavaFileObject> findInMemoryInput(String packageName, String relativeName) {
@@ -117,64 +174,350 @@ final class InMemoryJavaFileManager extends ForwardingStandardJavaFileManager {
         // to the left.
         String suffix =
                 packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
-        return inMemoryInputs.entrySet().stream()
-                .filter(entry -> entry.getKey().getPath().endsWith(suffix))
-                .map(Map.Entry::getValue)
-                .findFirst(); // Might have problems if more than one input file matches.
+        return inMemoryInputs.find(suffix);
     }
 
     @Override
     public FileObject getFileForOutput(Location location, String packageName,
                                        String relativeName, FileObject sibling) {
-        URI uri = uriForFileObject(location, packageName, relativeName);
-        return inMemoryOutputs.computeIfAbsent(uri, InMemoryJavaFileObject::new);
+        outputListener.run();
+        return inMemoryOutputs.getOrCreate(location, pathForFileObject(packageName, relativeName));
     }
 
     @Override
     public JavaFileObject getJavaFileForOutput(Location location, String className, final Kind kind,
                                                FileObject sibling) {
-        URI uri = uriForJavaFileObject(location, className, kind);
-        return inMemoryOutputs.computeIfAbsent(uri, InMemoryJavaFileObject::new);
+        outputListener.run();
+        return inMemoryOutputs.getOrCreate(location, pathForJavaFileObject(className, kind));
     }
 
     List<JavaFileObject> getGeneratedSources() {
         List<JavaFileObject> result = new ArrayList<>();
-        for (Map.Entry<URI, JavaFileObject> entry : inMemoryOutputs.entrySet()) {
-            if (entry.getKey().getPath().startsWith("/" + StandardLocation.SOURCE_OUTPUT.name())
-                    && (entry.getValue().getKind() == Kind.SOURCE)) {
-                result.add(entry.getValue());
+        for (JavaFileObject file : inMemoryOutputs.list(StandardLocation.SOURCE_OUTPUT)) {
+            if (file.getKind() == Kind.SOURCE) {
+                result.add(file);
             }
         }
         return result;
     }
 
+    /**
+     * Returns a read-only view of all output files, in the order in which they were created. Call
+     * this after the compilation, since the view does not copy the files.
+     */
     List<JavaFileObject> getOutputFiles() {
-        return List.copyOf(inMemoryOutputs.values());
+        return inMemoryOutputs.all();
+    }
+
+    /** Returns an output file with the given contents, as if a compilation had written it. */
+    static JavaFileObject outputFile(URI uri, byte[] content) {
+        InMemoryJavaFileObject file = new InMemoryJavaFileObject(uri, HeapBudget.UNLIMITED);
+        try (OutputStream outputStream = file.openOutputStream()) {
+            outputStream.write(content);
+        } catch (IOException e) {
+            // impossible, the output stream is in memory
+            throw new UncheckedIOException(e);
+        }
+        return file;
     }
 
     /** Adds files that should be available in the source path. */
     void addSourceFiles(Iterable<? extends JavaFileObject> files) {
         for (JavaFileObject file : files) {
-            inMemoryInputs.put(file.toUri(), file);
+            inMemoryInputs.add(file);
         }
     }
 
+    /**
+     * The output files, indexed by location and by package directory, so that a file, a package, or
+     * all files of a location are found without looking at the other outputs.
+     *
+     * <p>Annotation processors may create files from several threads, so all access is synchronized.
+     * Files are listed in the order in which they were created.
+     */
+    private static final class OutputIndex {
+        private final HeapBudget budget;
+        private final Map<String, Map<String, Map<String, JavaFileObject>>> byLocation = new HashMap<>();
+        private final Map<String, List<JavaFileObject>> locations = new HashMap<>();
+        private final List<JavaFileObject> all = new ArrayList<>();
+
+        OutputIndex(HeapBudget budget) {
+            this.budget = budget;
+        }
+
+        /** Returns the file at {@code path} in {@code location}, or {@code null}. */
+        synchronized JavaFileObject get(Location location, String path) {
+            int lastSlash = path.lastIndexOf('/');
+            return packageDirectory(location, lastSlash == -1 ? "" : path.substring(0, lastSlash))
+                    .get(path.substring(lastSlash + 1));
+        }
+
+        /** Returns the file at {@code path} in {@code location}, creating it if it does not exist. */
+        synchronized JavaFileObject getOrCreate(Location location, String path) {
+            int lastSlash = path.lastIndexOf('/');
+            String directory = lastSlash == -1 ? "" : path.substring(0, lastSlash);
+            String fileName = path.substring(lastSlash + 1);
+            Map<String, JavaFileObject> files =
+                    byLocation
+                            .computeIfAbsent(location.getName(), name -> new HashMap<>())
+                            .computeIfAbsent(directory, name -> new LinkedHashMap<>());
+            JavaFileObject file = files.get(fileName);
+            if (file == null) {
+                file = new InMemoryJavaFileObject(
+                        URI.create("mem:///" + location.getName() + '/' + path), budget);
+                files.put(fileName, file);
+                locations.computeIfAbsent(location.getName(), name -> new ArrayList<>()).add(file);
+                all.add(file);
+            }
+            return file;
+        }
+
+        /** Returns the files in a package directory of {@code location}, such as {@code com/example}. */
+        private Map<String, JavaFileObject> packageDirectory(Location location, String directory) {
+            return byLocation
+                    .getOrDefault(location.getName(), Map.of())
+                    .getOrDefault(directory, Map.of());
+        }
+
+        /**
+         * Returns the files of the given kinds in a package directory of {@code location}, and if
+         * {@code recurse} is set, in its subdirectories.
+         */
+        synchronized List<JavaFileObject> list(
+                Location location, String directory, Set<Kind> kinds, boolean recurse) {
+            List<JavaFileObject> result = new ArrayList<>();
+            if (!recurse) {
+                addFiles(result, packageDirectory(location, directory), kinds);
+                return result;
+            }
+            String prefix = directory + '/';
+            byLocation.getOrDefault(location.getName(), Map.of()).forEach((subdirectory, files) -> {
+                if (directory.isEmpty() || subdirectory.equals(directory) || subdirectory.startsWith(prefix)) {
+                    addFiles(result, files, kinds);
+                }
+            });
+            return result;
+        }
+
+        private static void addFiles(List<JavaFileObject> result, Map<String, JavaFileObject> files, Set<Kind> kinds) {
+            for (JavaFileObject file : files.values()) {
+                if (kinds.contains(file.getKind())) {
+                    result.add(file);
+                }
+            }
+        }
+
+        /**
+         * Returns a read-only view of the files in {@code location}, in the order in which they were
+         * created. The view is not a copy, so only read it after the compilation.
+         */
+        synchronized List<JavaFileObject> list(Location location) {
+            return Collections.unmodifiableList(locations.getOrDefault(location.getName(), List.of()));
+        }
+
+        /**
+         * Returns a read-only view of all files, in the order in which they were created. The view is
+         * not a copy, so only read it after the compilation.
+         */
+        synchronized List<JavaFileObject> all() {
+            return Collections.unmodifiableList(all);
+        }
+    }
+
+    /**
+     * The input files, indexed by the segments of their paths in reverse order, so that the files
+     * whose path ends with a given suffix are found in time proportional to the length of the suffix.
+     *
+     * <p>Each node keeps the files below it whose path has the fewest segments. If a suffix is the
+     * complete path of one file, that file is found even if longer paths end with the same suffix.
+     * If several files match equally well, the lookup fails, since the compiler cannot tell them
+     * apart either. Files with the same path cannot be told apart by any lookup, so they are rejected
+     * when they are added.
+     */
+    private static final class InputIndex {
+        private final Node root = new Node();
+        private final Map<URI, JavaFileObject> byUri = new HashMap<>();
+
+        synchronized boolean contains(JavaFileObject file) {
+            return byUri.get(file.toUri()) == file;
+        }
+
+        synchronized void add(JavaFileObject file) {
+            List<String> segments = segments(file.toUri());
+            checkUniquePath(file, segments);
+            byUri.put(file.toUri(), file);
+            Node node = root;
+            node.offer(file, segments.size());
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                node = node.children.computeIfAbsent(segments.get(i), segment -> new Node());
+                node.offer(file, segments.size());
+            }
+        }
+
+        /**
+         * Returns the file with the shortest path that ends with {@code suffix}.
+         *
+         * @throws IllegalArgumentException if several files have the shortest path
+         */
+        synchronized Optional<JavaFileObject> find(String suffix) {
+            Node node = node(segments(suffix));
+            if (node == null || node == root) {
+                return Optional.empty();
+            }
+            if (node.shortest.size() != 1) {
+                List<String> candidates = new ArrayList<>();
+                node.shortest.forEach(file -> candidates.add(file.toUri().toString()));
+                Collections.sort(candidates);
+                throw new IllegalArgumentException(
+                        String.format(
+                                "input files %s all end with %s, so the compiler cannot tell them apart",
+                                candidates, suffix));
+            }
+            return Optional.of(node.shortest.get(0));
+        }
+
+        private void checkUniquePath(JavaFileObject file, List<String> segments) {
+            Node node = node(segments);
+            if (node == null || node.shortestLength != segments.size()) {
+                return;
+            }
+            for (JavaFileObject other : node.shortest) {
+                if (!other.toUri().equals(file.toUri())) {
+                    throw new IllegalArgumentException(
+                            String.format(
+                                    "input files %s and %s have the same path, so the compiler cannot tell them apart",
+                                    other.toUri(), file.toUri()));
+                }
+            }
+        }
+
+        private Node node(List<String> segments) {
+            Node node = root;
+            for (int i = segments.size() - 1; i >= 0 && node != null; i--) {
+                node = node.children.get(segments.get(i));
+            }
+            return node;
+        }
+
+        private static List<String> segments(URI uri) {
+            // opaque URIs, such as jar:file:/foo.jar!/bar/Baz.java, have no path
+            return segments(uri.getPath() != null ? uri.getPath() : uri.getSchemeSpecificPart());
+        }
+
+        private static List<String> segments(String path) {
+            List<String> segments = new ArrayList<>();
+            for (String segment : path.split("/")) {
+                if (!segment.isEmpty()) {
+                    segments.add(segment);
+                }
+            }
+            return segments;
+        }
+
+        private static final class Node {
+            final Map<String, Node> children = new HashMap<>();
+            final List<JavaFileObject> shortest = new ArrayList<>(1);
+            int shortestLength = Integer.MAX_VALUE;
+
+            void offer(JavaFileObject file, int length) {
+                if (length > shortestLength) {
+                    return;
+                }
+                if (length < shortestLength) {
+                    shortestLength = length;
+                    shortest.clear();
+                }
+                // a file that is added again replaces the earlier one
+                shortest.removeIf(other -> other.toUri().equals(file.toUri()));
+                shortest.add(file);
+            }
+        }
+    }
+
+    /**
+     * The number of bytes of outputs that a file manager may still keep on the heap. Outputs that do
+     * not fit are written to a temporary file, which is memory-mapped and deleted right away, where
+     * the platform allows it.
+     */
+    private static final class HeapBudget {
+        static final HeapBudget UNLIMITED = new HeapBudget(Long.MAX_VALUE);
+
+        private final long limit;
+        private long used;
+
+        HeapBudget(long limit) {
+            this.limit = limit;
+        }
+
+        /** Takes {@code size} bytes from the budget, unless that would exceed it. */
+        synchronized boolean reserve(long size) {
+            if (size > limit - used) {
+                return false;
+            }
+            used += size;
+            return true;
+        }
+
+        synchronized void release(long size) {
+            used -= size;
+        }
+
+        static ByteBuffer map(byte[] content) throws IOException {
+            Path file = Files.createTempFile("compile-testing", ".out");
+            try {
+                try (FileChannel channel =
+                             FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ByteBuffer source = ByteBuffer.wrap(content);
+                    while (source.hasRemaining()) {
+                        channel.write(source);
+                    }
+                    // the mapping stays valid after the channel is closed and the file is deleted
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, content.length);
+                }
+            } finally {
+                delete(file);
+            }
+        }
+
+        private static void delete(Path file) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Windows does not delete a file while it is mapped
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * An output file. Its content is kept in the form that it was written in: as bytes if it was
+     * written to {@link #openOutputStream()}, and as text if it was written to {@link #openWriter()}.
+     * The other form is computed on first use, with UTF-8, and then kept as well if it fits into the
+     * {@link HeapBudget}. Otherwise it is computed again on each use.
+     *
+     * <p>If the content does not fit into the budget, it is kept in a mapped file instead, and text
+     * is decoded on each use.
+     */
     private static final class InMemoryJavaFileObject extends SimpleJavaFileObject
             implements JavaFileObject {
+        private final HeapBudget budget;
         private long lastModified = 0L;
-        private Optional<byte[]> data = Optional.empty();
+        private byte[] bytes;
+        private String text;
+        private ByteBuffer mapped;
+        private long reserved;
 
-        InMemoryJavaFileObject(URI uri) {
+        InMemoryJavaFileObject(URI uri, HeapBudget budget) {
             super(uri, JavaFileObjects.deduceKind(uri));
+            this.budget = budget;
         }
 
         @Override
-        public InputStream openInputStream() throws IOException {
-            if (data.isPresent()) {
-                return new ByteArrayInputStream(data.get());
-            } else {
-                throw new FileNotFoundException();
+        public synchronized InputStream openInputStream() throws IOException {
+            if (mapped != null) {
+                return new ByteBufferInputStream(mapped.duplicate());
             }
+            return new ByteArrayInputStream(bytes());
         }
 
         @Override
@@ -183,29 +526,20 @@ final class InMemoryJavaFileManager extends ForwardingStandardJavaFileManager {
                 @Override
                 public void close() throws IOException {
                     super.close();
-                    data = Optional.of(toByteArray());
-                    lastModified = System.currentTimeMillis();
+                    store(toByteArray(), null);
                 }
             };
         }
 
         @Override
         public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
-            if (data.isPresent()) {
-                return new StringReader(new String(data.get(), Charset.defaultCharset()));
-            } else {
-                throw new FileNotFoundException();
-            }
+            return new StringReader(text());
         }
 
         @Override
         public CharSequence getCharContent(boolean ignoreEncodingErrors)
                 throws IOException {
-            if (data.isPresent()) {
-                return new String(data.get(), Charset.defaultCharset());
-            } else {
-                throw new FileNotFoundException();
-            }
+            return text();
         }
 
         @Override
@@ -214,21 +548,78 @@ final class InMemoryJavaFileManager extends ForwardingStandardJavaFileManager {
                 @Override
                 public void close() throws IOException {
                     super.close();
-                    data =
-                            Optional.of(toString().getBytes(Charset.defaultCharset()));
-                    lastModified = System.currentTimeMillis();
+                    store(null, toString());
                 }
             };
         }
 
+        /** Stores either {@code newBytes} or {@code newText}. */
+        private synchronized void store(byte[] newBytes, String newText) throws IOException {
+            clear();
+            // compact strings take one byte per character for most source code
+            long size = newBytes != null ? newBytes.length : newText.length();
+            if (reserve(size)) {
+                bytes = newBytes;
+                text = newText;
+            } else {
+                mapped = HeapBudget.map(newBytes != null ? newBytes : newText.getBytes(UTF_8));
+            }
+            lastModified = System.currentTimeMillis();
+        }
+
+        private synchronized void clear() {
+            budget.release(reserved);
+            reserved = 0;
+            bytes = null;
+            text = null;
+            mapped = null;
+        }
+
+        private synchronized byte[] bytes() throws FileNotFoundException {
+            if (bytes != null) {
+                return bytes;
+            }
+            byte[] encoded = text().getBytes(UTF_8);
+            if (mapped == null && reserve(encoded.length)) {
+                bytes = encoded;
+            }
+            return encoded;
+        }
+
+        private synchronized String text() throws FileNotFoundException {
+            if (mapped != null) {
+                return UTF_8.decode(mapped.duplicate()).toString();
+            }
+            if (text != null) {
+                return text;
+            }
+            if (bytes == null) {
+                throw new FileNotFoundException(toUri().toString());
+            }
+            String decoded = new String(bytes, UTF_8);
+            if (reserve(decoded.length())) {
+                text = decoded;
+            }
+            return decoded;
+        }
+
+        /** Takes {@code size} bytes for a copy of the content from the budget, if it fits. */
+        private boolean reserve(long size) {
+            if (!budget.reserve(size)) {
+                return false;
+            }
+            reserved += size;
+            return true;
+        }
+
         @Override
-        public long getLastModified() {
+        public synchronized long getLastModified() {
             return lastModified;
         }
 
         @Override
-        public boolean delete() {
-            this.data = Optional.empty();
+        public synchronized boolean delete() {
+            clear();
             this.lastModified = 0L;
             return true;
         }
@@ -241,4 +632,43 @@ final class InMemoryJavaFileManager extends ForwardingStandardJavaFileManager {
                     .toString();
         }
     }
+
+    /** Reads a buffer without copying it. */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 }
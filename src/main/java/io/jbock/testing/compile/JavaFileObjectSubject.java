@@ -20,13 +20,16 @@ import io.jbock.common.truth.IterableSubject;
 import io.jbock.common.truth.StringSubject;
 import io.jbock.common.truth.Subject;
 
+import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static io.jbock.common.truth.Fact.fact;
+import static io.jbock.common.truth.Fact.simpleFact;
 import static io.jbock.common.truth.Truth.assertAbout;
 import static io.jbock.testing.compile.JavaFileObjects.asBytes;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -123,29 +126,95 @@ public final class JavaFileObjectSubject extends Subject {
     }
 
     /**
-     * <p><b>DO NOT USE</b>
+     * Asserts that the actual file is a source file that has an equivalent <a
+     * href="https://en.wikipedia.org/wiki/Abstract_syntax_tree">AST</a> to that of {@code
+     * expectedSource}. Formatting, comments and the order of modifiers are ignored.
      *
-     * <p>Always throws {@link UnsupportedOperationException}.
+     * <p>Both files are only parsed, not compiled, so they may refer to types that do not exist. If
+     * both files consist of the same tokens, they are not parsed at all.
      *
      * @deprecated use {@link #containsLines(List)} or
      * {@link #containsLines(String...)} instead
      */
     @Deprecated(forRemoval = true)
     public void hasSourceEquivalentTo(JavaFileObject expectedSource) {
-        throw new UnsupportedOperationException();
+        if (sameTokens(expectedSource)) {
+            return;
+        }
+        List<ParsedSource> parsed = ParsedSource.parse(List.of(expectedSource, actual));
+        hasSourceEquivalentTo(expectedSource, parsed.get(0), parsed.get(1));
+    }
+
+    /**
+     * Like {@link #hasSourceEquivalentTo(JavaFileObject)}, for files that the caller already parsed,
+     * so that files of several assertions can be parsed together.
+     */
+    void hasSourceEquivalentTo(JavaFileObject expectedSource, ParsedSource expected, ParsedSource parsedActual) {
+        failIfErrors(expectedSource, expected, parsedActual);
+        TreeDiffer.diff(expected, parsedActual)
+                .ifPresent(difference -> failDifference(
+                        "Source was not equivalent to the expected source", expectedSource, difference));
     }
 
     /**
-     * <p><b>DO NOT USE</b>
+     * Asserts that the actual file contains the elements of {@code expectedPattern}: its package
+     * declaration, imports and types, where each class may have more members than in {@code
+     * expectedPattern}. Members are found by their names, and compared like {@link
+     * #hasSourceEquivalentTo(JavaFileObject)} does.
      *
-     * <p>Always throws {@link UnsupportedOperationException}.
+     * <p>For example, if the actual file declares a class with a method {@code foo()} and a method
+     * {@code bar()}, it contains a pattern with just one of these methods.
      *
      * @deprecated use {@link #containsLines(List)} or
      * {@link #containsLines(String...)} instead
      */
     @Deprecated(forRemoval = true)
     public void containsElementsIn(JavaFileObject expectedPattern) {
-        throw new UnsupportedOperationException();
+        if (sameTokens(expectedPattern)) {
+            return;
+        }
+        List<ParsedSource> parsed = ParsedSource.parse(List.of(expectedPattern, actual));
+        failIfErrors(expectedPattern, parsed.get(0), parsed.get(1));
+        TreeDiffer.findMissingElement(parsed.get(0), parsed.get(1))
+                .ifPresent(difference -> failDifference(
+                        "Source did not contain the expected elements", expectedPattern, difference));
+    }
+
+    /** Compares the normalized lines of both files, to skip parsing files that only differ in formatting. */
+    private boolean sameTokens(JavaFileObject expected) {
+        try {
+            return LineIndex.of(actual).normalized().sameLines(LineIndex.of(expected).normalized());
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Couldn't read from JavaFileObject when it was already in memory.", e);
+        }
+    }
+
+    /** Fails if the expected file or the actual file has syntax errors. */
+    private void failIfErrors(JavaFileObject expectedFile, ParsedSource expected, ParsedSource parsedActual) {
+        failIfErrors("expected source had syntax errors", expectedFile, expected);
+        failIfErrors("actual source had syntax errors", actual, parsedActual);
+    }
+
+    private void failIfErrors(String message, JavaFileObject file, ParsedSource parsed) {
+        List<Diagnostic<? extends JavaFileObject>> errors = parsed.errors();
+        if (!errors.isEmpty()) {
+            failWithoutActual(
+                    simpleFact(message),
+                    fact("for file", file.toUri().getPath()),
+                    fact("errors", errors.stream()
+                            .map(error -> error.getLineNumber() + ": " + error.getMessage(null))
+                            .collect(Collectors.joining("\n"))));
+        }
+    }
+
+    private void failDifference(String message, JavaFileObject expected, TreeDiffer.Difference difference) {
+        failWithoutActual(
+                simpleFact(message),
+                fact("for file", actual.toUri().getPath()),
+                fact("expected file", expected.toUri().getPath()),
+                fact("in", difference.path().isEmpty() ? "(top level)" : difference.path()),
+                fact("difference", difference.message()));
     }
 
     /**
@@ -154,10 +223,7 @@ public final class JavaFileObjectSubject extends Subject {
      */
     public void containsLines(JavaFileObject expectedPattern) {
         try {
-            List<String> expected = Arrays.asList(expectedPattern.getCharContent(false)
-                    .toString()
-                    .split("\\R", -1));
-            containsLines(expected);
+            containsLines(LineIndex.of(expectedPattern).lines());
         } catch (IOException e) {
             throw new IllegalStateException(
                     "Couldn't read from JavaFileObject when it was already in memory.", e);
@@ -178,18 +244,82 @@ public final class JavaFileObjectSubject extends Subject {
      */
     public void containsLines(List<String> expectedPattern) {
         try {
-            List<String> actualList = Arrays.asList(this.actual.getCharContent(false)
-                    .toString()
-                    .split("\\R", -1));
-            SubsequenceChecker.checkSubsequence(actualList, expectedPattern)
-                    .ifPresent(subsequenceReport -> failWithoutActual(
-                            fact("for file", this.actual.toUri().getPath()),
-                            fact("unmatched", subsequenceReport.getUnmatched()),
-                            fact("actual", subsequenceReport.getActual()),
-                            fact("subsequence", subsequenceReport.getSubsequence())));
+            SubsequenceChecker.checkSubsequence(LineIndex.of(this.actual), expectedPattern)
+                    .ifPresent(this::failSubsequence);
         } catch (IOException e) {
             throw new IllegalStateException(
                     "Couldn't read from JavaFileObject when it was already in memory.", e);
         }
     }
+
+    /**
+     * Like {@link #containsLines(JavaFileObject)}, but ignores comments, blank lines and whitespace
+     * between tokens, in both files.
+     */
+    public void containsLinesIgnoringFormatting(JavaFileObject expectedPattern) {
+        try {
+            containsLinesIgnoringFormatting(LineIndex.of(expectedPattern).lines());
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Couldn't read from JavaFileObject when it was already in memory.", e);
+        }
+    }
+
+    /**
+     * Like {@link #containsLines(String...)}, but ignores comments, blank lines and whitespace
+     * between tokens, in both the actual file and {@code expectedPattern}.
+     */
+    public void containsLinesIgnoringFormatting(String... expectedPattern) {
+        containsLinesIgnoringFormatting(Arrays.asList(expectedPattern));
+    }
+
+    /**
+     * Like {@link #containsLines(List)}, but ignores comments, blank lines and whitespace between
+     * tokens, in both the actual file and {@code expectedPattern}. A failure lists the lines without
+     * formatting.
+     */
+    public void containsLinesIgnoringFormatting(List<String> expectedPattern) {
+        try {
+            SubsequenceChecker.checkSubsequenceIgnoringFormatting(
+                            LineIndex.of(this.actual).normalized(), NormalizedLines.of(expectedPattern))
+                    .ifPresent(this::failSubsequence);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Couldn't read from JavaFileObject when it was already in memory.", e);
+        }
+    }
+
+    /**
+     * Checks that every line of {@code expectedPattern} matches a line of the actual file, in the
+     * same order, like {@link #containsLines(String...)}. Each line of {@code expectedPattern} is a
+     * {@linkplain java.util.regex.Pattern regular expression} that has to match an entire line; use
+     * {@code \Q...\E} to match a line literally. Each expression only sees the line that it is
+     * matched against, so its groups and back references refer to that line.
+     */
+    public void containsLinesMatching(String... expectedPattern) {
+        containsLinesMatching(Arrays.asList(expectedPattern));
+    }
+
+    /**
+     * Like {@link #containsLinesMatching(String...)}. Each expression is compiled once, and the lines
+     * of the file are scanned once.
+     */
+    public void containsLinesMatching(List<String> expectedPattern) {
+        try {
+            SubsequenceChecker.checkSubsequenceMatching(LineIndex.of(this.actual), expectedPattern)
+                    .ifPresent(this::failSubsequence);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Couldn't read from JavaFileObject when it was already in memory.", e);
+        }
+    }
+
+    private void failSubsequence(SubsequenceReport subsequenceReport) {
+        failWithoutActual(
+                fact("for file", this.actual.toUri().getPath()),
+                fact("unmatched", subsequenceReport.getUnmatched()),
+                fact("actual", subsequenceReport.getActual()),
+                fact("subsequence", subsequenceReport.getSubsequence()),
+                fact("diff", subsequenceReport.getDiff()));
+    }
 }
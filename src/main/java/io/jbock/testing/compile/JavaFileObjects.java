@@ -30,13 +30,13 @@ import java.io.StringReader;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static javax.tools.JavaFileObject.Kind.SOURCE;
 
@@ -118,7 +118,7 @@ public final class JavaFileObjects {
 
         @Override
         public InputStream openInputStream() {
-            return new ByteArrayInputStream(source.getBytes(Charset.defaultCharset()));
+            return new ByteArrayInputStream(source.getBytes(UTF_8));
         }
 
         @Override
@@ -237,7 +237,7 @@ public final class JavaFileObjects {
 
         @Override
         public CharSequence getCharContent(boolean ignoreEncodingErrors) {
-            return new String(resourceByteSource, Charset.defaultCharset());
+            return new String(resourceByteSource, UTF_8);
         }
 
         @Override
@@ -247,7 +247,7 @@ public final class JavaFileObjects {
 
         @Override
         public Reader openReader(boolean ignoreEncodingErrors) {
-            return new InputStreamReader(new ByteArrayInputStream(resourceByteSource));
+            return new InputStreamReader(new ByteArrayInputStream(resourceByteSource), UTF_8);
         }
     }
 }
@@ -22,6 +22,7 @@ import io.jbock.testing.compile.CompilationSubject.DiagnosticInFile;
 import io.jbock.testing.compile.CompilationSubject.DiagnosticOnLine;
 
 import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import java.io.File;
@@ -30,15 +31,20 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static io.jbock.common.truth.Fact.fact;
 import static io.jbock.common.truth.Fact.simpleFact;
 import static io.jbock.common.truth.Truth.assertAbout;
 import static io.jbock.testing.compile.CompilationSubject.compilations;
 import static io.jbock.testing.compile.Compiler.javac;
+import static io.jbock.testing.compile.JavaFileObjectSubject.javaFileObjects;
 import static io.jbock.testing.compile.JavaSourcesSubjectFactory.javaSources;
 
 /**
@@ -115,9 +121,14 @@ public final class JavaSourcesSubject extends Subject
         return new CompilationClause().failsToCompile();
     }
 
-    /** The clause in the fluent API for testing compilations. */
+    /**
+     * The clause in the fluent API for testing compilations. The sources are compiled once, when the
+     * first outcome is checked, and later checks reuse the result.
+     */
     private final class CompilationClause implements CompileTester {
         private final Set<Processor> processors;
+        private Compiler compiler;
+        private Compilation compilation;
 
         private CompilationClause() {
             this(Set.of());
@@ -148,15 +159,40 @@ public final class JavaSourcesSubject extends Subject
             return new UnsuccessfulCompilationBuilder(compilation);
         }
 
+        /**
+         * Returns the result of compiling the sources. If the compiler options or class path were
+         * changed since the last compilation, the sources are compiled again, unless processors have
+         * already run.
+         *
+         * @throws IllegalStateException if the sources would have to be compiled again with the same
+         *     processors
+         */
         private Compilation compilation() {
-            Compiler compiler = javac().withProcessors(processors).withOptions(options);
+            // the same JavaCompiler instance, so that an unchanged configuration is equal
+            Compiler compiler =
+                    this.compiler == null ? javac() : Compiler.compiler(this.compiler.javaCompiler());
+            compiler = compiler.withProcessors(processors).withOptions(options);
             if (classLoader != null) {
                 compiler = compiler.withClasspathFrom(classLoader);
             }
             if (classPath != null) {
                 compiler = compiler.withClasspath(classPath);
             }
-            return compiler.compile(actual);
+            if (compilation != null) {
+                if (compiler.equals(this.compiler)) {
+                    return compilation;
+                }
+                Preconditions.checkState(
+                        processors.isEmpty(),
+                        "The configuration changed after the sources were compiled with %s, but the"
+                                + " processors cannot run again. Use a new processor instance for each"
+                                + " compilation.",
+                        processors);
+            }
+            Compilation compilation = compiler.compile(actual);
+            this.compiler = compiler;
+            this.compilation = compilation;
+            return compilation;
         }
     }
 
@@ -289,17 +325,78 @@ public final class JavaSourcesSubject extends Subject
         }
 
         @Override
+        @SuppressWarnings("removal")
         public final T generatesSources(JavaFileObject first, JavaFileObject... rest) {
-            throw new UnsupportedOperationException();
+            check("compilation()").about(compilations()).that(compilation).succeeded();
+            Map<Long, List<JavaFileObject>> generatedByTokens = new HashMap<>();
+            for (JavaFileObject generated : compilation.generatedSourceFiles()) {
+                generatedByTokens.computeIfAbsent(normalized(generated).hash(), k -> new ArrayList<>())
+                        .add(generated);
+            }
+            // files with the same tokens as a generated file are equivalent to it
+            List<JavaFileObject> expectedFiles = new ArrayList<>();
+            for (JavaFileObject expected : Stream.concat(Stream.of(first), Arrays.stream(rest)).collect(Collectors.toList())) {
+                NormalizedLines expectedLines = normalized(expected);
+                boolean sameTokens = generatedByTokens.getOrDefault(expectedLines.hash(), List.of()).stream()
+                        .anyMatch(generated -> normalized(generated).sameLines(expectedLines));
+                if (!sameTokens) {
+                    expectedFiles.add(expected);
+                }
+            }
+            List<ParsedSource> parsed = ParsedSource.parse(expectedFiles);
+            List<JavaFileObject> generatedFiles = new ArrayList<>(expectedFiles.size());
+            for (int i = 0; i < expectedFiles.size(); i++) {
+                JavaFileObject expected = expectedFiles.get(i);
+                List<Diagnostic<? extends JavaFileObject>> errors = parsed.get(i).errors();
+                if (!errors.isEmpty()) {
+                    failWithoutActual(
+                            simpleFact("expected source had syntax errors"),
+                            fact("for file", expected.toUri().getPath()),
+                            fact("errors", errors.stream()
+                                    .map(error -> error.getLineNumber() + ": " + error.getMessage(null))
+                                    .collect(Collectors.joining("\n"))));
+                    return thisObject();
+                }
+                Set<String> types = TypeEnumerator.getTopLevelTypes(parsed.get(i).tree());
+                Optional<JavaFileObject> generated = types.stream()
+                        .map(compilation::generatedSourceFile)
+                        .flatMap(Optional::stream)
+                        .findFirst();
+                if (generated.isEmpty()) {
+                    failWithoutActual(
+                            simpleFact("Did not find a generated source file corresponding to " + expected.getName()),
+                            fact("expected top-level types", types),
+                            fact("generated source files", compilation.generatedSourceFiles().stream()
+                                    .map(JavaFileObject::getName)
+                                    .collect(Collectors.toList())));
+                    return thisObject();
+                }
+                generatedFiles.add(generated.get());
+            }
+            // parse the generated files in one task, and compare them one by one
+            List<ParsedSource> parsedGenerated = ParsedSource.parse(generatedFiles);
+            for (int i = 0; i < expectedFiles.size(); i++) {
+                check("generatedSourceFile(%s)", generatedFiles.get(i).getName())
+                        .about(javaFileObjects())
+                        .that(generatedFiles.get(i))
+                        .hasSourceEquivalentTo(expectedFiles.get(i), parsed.get(i), parsedGenerated.get(i));
+            }
+            return thisObject();
+        }
+
+        private NormalizedLines normalized(JavaFileObject file) {
+            try {
+                return LineIndex.of(file).normalized();
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                        "Couldn't read from JavaFileObject when it was already in memory.", e);
+            }
         }
 
         @Override
         public T containsLines(String qualifiedName, JavaFileObject file) {
             try {
-                List<String> expectation = Arrays.asList(file.getCharContent(false)
-                        .toString()
-                        .split("\\R", -1));
-                return containsLines(qualifiedName, expectation);
+                return containsLines(qualifiedName, LineIndex.of(file).lines());
             } catch (IOException e) {
                 throw new IllegalStateException(
                         "Couldn't read from JavaFileObject when it was already in memory.", e);
@@ -320,6 +417,30 @@ public final class JavaSourcesSubject extends Subject
             return thisObject();
         }
 
+        @Override
+        public T containsLinesIgnoringFormatting(String qualifiedName, JavaFileObject file) {
+            try {
+                return containsLinesIgnoringFormatting(qualifiedName, LineIndex.of(file).lines());
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                        "Couldn't read from JavaFileObject when it was already in memory.", e);
+            }
+        }
+
+        @Override
+        public T containsLinesIgnoringFormatting(String qualifiedName, String... expectedPattern) {
+            return containsLinesIgnoringFormatting(qualifiedName, Arrays.asList(expectedPattern));
+        }
+
+        @Override
+        public T containsLinesIgnoringFormatting(String qualifiedName, List<String> expectedPattern) {
+            CompilationSubject.assertThat(compilation).succeeded();
+            CompilationSubject.assertThat(compilation)
+                    .generatedSourceFile(qualifiedName)
+                    .containsLinesIgnoringFormatting(expectedPattern);
+            return thisObject();
+        }
+
         @Override
         public T generatesFiles(JavaFileObject first, JavaFileObject... rest) {
             for (JavaFileObject expected : Stream.concat(Stream.of(first), Arrays.stream(rest)).collect(Collectors.toList())) {
@@ -332,14 +453,7 @@ public final class JavaSourcesSubject extends Subject
         }
 
         boolean wasGenerated(JavaFileObject expected) {
-            byte[] expectedByteSource = JavaFileObjects.asBytes(expected);
-            for (JavaFileObject generated : compilation.generatedFiles()) {
-                if (generated.getKind().equals(expected.getKind())
-                        && Arrays.equals(expectedByteSource, JavaFileObjects.asBytes(generated))) {
-                    return true;
-                }
-            }
-            return false;
+            return compilation.generatedFileWithContentsOf(expected);
         }
 
         @Override
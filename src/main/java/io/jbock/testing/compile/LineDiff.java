@@ -0,0 +1,309 @@
+package io.jbock.testing.compile;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A minimal line diff between expected lines and the lines of an actual text.
+ *
+ * <p>The diff is computed with Myers' algorithm in its linear space variant: each step finds the
+ * middle snake of the remaining edit graph and recurses on both halves, so only two vectors of size
+ * {@code O(n + m)} and the edit script are held in memory. Lines that do not occur on the other side
+ * at all cannot be part of a match, so they are left out before the diff is computed. In a large
+ * generated file, these are usually most of the lines.
+ */
+final class LineDiff {
+
+    private static final byte EQUAL = 0;
+    private static final byte DELETE = 1;
+    private static final byte INSERT = 2;
+
+    private final String[] expected;
+    private final LineIndex actual;
+    private final int[] expectedHashes;
+    private final int[] actualHashes;
+    // the lines that may match a line on the other side
+    private final int[] expectedCandidates;
+    private final int[] actualCandidates;
+
+    private byte[] script;
+    private int scriptLength;
+
+    private LineDiff(List<String> expected, LineIndex actual) {
+        this.expected = expected.toArray(new String[0]);
+        this.actual = actual;
+        this.expectedHashes = new int[this.expected.length];
+        for (int i = 0; i < this.expected.length; i++) {
+            expectedHashes[i] = this.expected[i] == null ? 0 : this.expected[i].hashCode();
+        }
+        this.actualHashes = actual.hashes();
+        this.expectedCandidates = candidates(expectedHashes, actualHashes);
+        this.actualCandidates = candidates(actualHashes, expectedHashes);
+        this.script = new byte[Math.max(16, expectedCandidates.length + actualCandidates.length)];
+    }
+
+    /** Returns the indices of the {@code hashes} that also occur in {@code otherHashes}. */
+    private static int[] candidates(int[] hashes, int[] otherHashes) {
+        int[] sorted = otherHashes.clone();
+        Arrays.sort(sorted);
+        int[] result = new int[hashes.length];
+        int size = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (Arrays.binarySearch(sorted, hashes[i]) >= 0) {
+                result[size++] = i;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /** Computes the diff from {@code expected} to {@code actual}. */
+    static LineDiff diff(List<String> expected, LineIndex actual) {
+        LineDiff diff = new LineDiff(expected, actual);
+        diff.diff(0, diff.expectedCandidates.length, 0, diff.actualCandidates.length);
+        diff.addOtherLines();
+        return diff;
+    }
+
+    /** Compares two candidate lines. */
+    private boolean equal(int expectedCandidate, int actualCandidate) {
+        int expectedIndex = expectedCandidates[expectedCandidate];
+        int actualIndex = actualCandidates[actualCandidate];
+        return expectedHashes[expectedIndex] == actualHashes[actualIndex]
+                && actual.lineEquals(actualIndex, expected[expectedIndex]);
+    }
+
+    /**
+     * Turns the edit script of the candidate lines into an edit script of all lines, where the other
+     * lines are deleted or inserted.
+     */
+    private void addOtherLines() {
+        byte[] candidateScript = script;
+        int candidateScriptLength = scriptLength;
+        script = new byte[expected.length + actual.size()];
+        scriptLength = 0;
+        int a = 0;
+        int b = 0;
+        int aCandidate = 0;
+        int bCandidate = 0;
+        for (int i = 0; i < candidateScriptLength; i++) {
+            byte op = candidateScript[i];
+            if (op != INSERT) {
+                int next = expectedCandidates[aCandidate++];
+                emit(DELETE, next - a);
+                a = next + 1;
+            }
+            if (op != DELETE) {
+                int next = actualCandidates[bCandidate++];
+                emit(INSERT, next - b);
+                b = next + 1;
+            }
+            emit(op, 1);
+        }
+        emit(DELETE, expected.length - a);
+        emit(INSERT, actual.size() - b);
+    }
+
+    private void emit(byte op, int count) {
+        if (scriptLength + count > script.length) {
+            script = Arrays.copyOf(script, Math.max(2 * script.length, scriptLength + count));
+        }
+        Arrays.fill(script, scriptLength, scriptLength + count, op);
+        scriptLength += count;
+    }
+
+    private void diff(int aStart, int aEnd, int bStart, int bEnd) {
+        int prefix = 0;
+        while (aStart + prefix < aEnd
+                && bStart + prefix < bEnd
+                && equal(aStart + prefix, bStart + prefix)) {
+            prefix++;
+        }
+        emit(EQUAL, prefix);
+        aStart += prefix;
+        bStart += prefix;
+        int suffix = 0;
+        while (aStart < aEnd - suffix
+                && bStart < bEnd - suffix
+                && equal(aEnd - suffix - 1, bEnd - suffix - 1)) {
+            suffix++;
+        }
+        aEnd -= suffix;
+        bEnd -= suffix;
+        if (aStart == aEnd) {
+            emit(INSERT, bEnd - bStart);
+        } else if (bStart == bEnd) {
+            emit(DELETE, aEnd - aStart);
+        } else {
+            long split = middleSnake(aStart, aEnd, bStart, bEnd);
+            if (split < 0) {
+                emit(DELETE, aEnd - aStart);
+                emit(INSERT, bEnd - bStart);
+            } else {
+                int x = (int) (split >>> 32);
+                int y = (int) split;
+                diff(aStart, x, bStart, y);
+                diff(x, aEnd, y, bEnd);
+            }
+        }
+        emit(EQUAL, suffix);
+    }
+
+    /**
+     * Returns the point where a shortest edit path from {@code (aStart, bStart)} to {@code (aEnd,
+     * bEnd)} crosses its middle diagonal, as {@code x << 32 | y}, or {@code -1} if the ranges have no
+     * line in common. The ranges are not empty, and their first and last lines differ.
+     */
+    private long middleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // if the delta is odd, the paths can only overlap while extending the forward path
+        boolean odd = (delta & 1) != 0;
+        int forwardStart = 0;
+        int forwardEnd = 0;
+        int backwardStart = 0;
+        int backwardEnd = 0;
+        for (int d = 0; d < maxD; d++) {
+            for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                int index = offset + k;
+                int x = k == -d || (k != d && forward[index - 1] < forward[index + 1])
+                        ? forward[index + 1]
+                        : forward[index - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && equal(aStart + x, bStart + y)) {
+                    x++;
+                    y++;
+                }
+                forward[index] = x;
+                if (x > n) {
+                    forwardEnd += 2;
+                } else if (y > m) {
+                    forwardStart += 2;
+                } else if (odd) {
+                    int backwardIndex = offset + delta - k;
+                    if (backwardIndex >= 0 && backwardIndex < length && backward[backwardIndex] != -1
+                            && x >= n - backward[backwardIndex]) {
+                        return (long) (aStart + x) << 32 | (bStart + y);
+                    }
+                }
+            }
+            for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+                int index = offset + k;
+                int x = k == -d || (k != d && backward[index - 1] < backward[index + 1])
+                        ? backward[index + 1]
+                        : backward[index - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && equal(aEnd - x - 1, bEnd - y - 1)) {
+                    x++;
+                    y++;
+                }
+                backward[index] = x;
+                if (x > n) {
+                    backwardEnd += 2;
+                } else if (y > m) {
+                    backwardStart += 2;
+                } else if (!odd) {
+                    int forwardIndex = offset + delta - k;
+                    if (forwardIndex >= 0 && forwardIndex < length && forward[forwardIndex] != -1) {
+                        int forwardX = forward[forwardIndex];
+                        int forwardY = offset + forwardX - forwardIndex;
+                        if (forwardX >= n - x) {
+                            return (long) (aStart + forwardX) << 32 | (bStart + forwardY);
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** The number of expected lines that are missing from the actual text. */
+    int deletions() {
+        int count = 0;
+        for (int i = 0; i < scriptLength; i++) {
+            if (script[i] == DELETE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the hunks of the diff that contain expected lines which are missing from the actual
+     * text, in unified diff format. Lines that are only in the actual text are shown with {@code +}
+     * near missing lines, and not at all elsewhere, because expected lines do not have to be
+     * consecutive in the actual text.
+     *
+     * @param context the number of lines to show around each missing line
+     * @param maxLines the maximum number of lines to return, not counting a final line that says
+     *     that the diff was truncated
+     */
+    String hunks(int context, int maxLines) {
+        // mark the script entries that are close enough to a deletion to be shown
+        boolean[] shown = new boolean[scriptLength];
+        int lastDeletion = Integer.MIN_VALUE / 2;
+        for (int i = 0; i < scriptLength; i++) {
+            if (script[i] == DELETE) {
+                lastDeletion = i;
+                for (int j = Math.max(0, i - context); j < i; j++) {
+                    shown[j] = true;
+                }
+            }
+            shown[i] |= i - lastDeletion <= context;
+        }
+        StringBuilder result = new StringBuilder();
+        int lines = 0;
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < scriptLength; ) {
+            if (!shown[i]) {
+                a += script[i] == INSERT ? 0 : 1;
+                b += script[i] == DELETE ? 0 : 1;
+                i++;
+                continue;
+            }
+            int end = i;
+            int aCount = 0;
+            int bCount = 0;
+            while (end < scriptLength && shown[end]) {
+                aCount += script[end] == INSERT ? 0 : 1;
+                bCount += script[end] == DELETE ? 0 : 1;
+                end++;
+            }
+            if (lines >= maxLines) {
+                return result.append("... (diff truncated)").toString();
+            }
+            result.append("@@ -").append(a + 1).append(',').append(aCount)
+                    .append(" +").append(b + 1).append(',').append(bCount).append(" @@\n");
+            lines++;
+            for (; i < end; i++) {
+                if (lines >= maxLines) {
+                    return result.append("... (diff truncated)").toString();
+                }
+                if (script[i] == EQUAL) {
+                    result.append(' ').append(actual.line(b));
+                    a++;
+                    b++;
+                } else if (script[i] == DELETE) {
+                    result.append('-').append(expected[a]);
+                    a++;
+                } else {
+                    result.append('+').append(actual.line(b));
+                    b++;
+                }
+                result.append('\n');
+                lines++;
+            }
+        }
+        return result.substring(0, Math.max(0, result.length() - 1));
+    }
+}
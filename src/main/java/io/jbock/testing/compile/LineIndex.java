@@ -0,0 +1,214 @@
+package io.jbock.testing.compile;
+
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The lines of a text, as offsets into the text. The lines are the same as the ones that {@code
+ * split("\\R", -1)} returns, but they are not copied until they are {@linkplain #line(int)
+ * requested}.
+ */
+final class LineIndex {
+
+    private static final Map<JavaFileObject, LineIndex> CACHE =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final CharSequence content;
+    private final int[] starts;
+    private final int[] ends;
+    private final int size;
+    private int[] hashes;
+    private NormalizedLines normalized;
+
+    private LineIndex(CharSequence content) {
+        this.content = content;
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int size = 0;
+        int start = 0;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (isLineBreak(c)) {
+                if (size + 1 == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * starts.length);
+                    ends = Arrays.copyOf(ends, 2 * ends.length);
+                }
+                starts[size] = start;
+                ends[size] = i;
+                size++;
+                if (c == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        starts[size] = start;
+        ends[size] = length;
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size + 1;
+    }
+
+    private LineIndex(CharSequence content, int[] starts, int[] ends) {
+        this.content = content;
+        this.starts = starts;
+        this.ends = ends;
+        this.size = starts.length;
+    }
+
+    /** Returns the lines of {@code content}. */
+    static LineIndex of(CharSequence content) {
+        return new LineIndex(content);
+    }
+
+    /**
+     * Returns an index of {@code lines}. Line break characters within a line do not split it, so
+     * the index has the same lines as the list.
+     */
+    static LineIndex ofLines(List<String> lines) {
+        StringBuilder content = new StringBuilder();
+        int[] starts = new int[lines.size()];
+        int[] ends = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) {
+                content.append('\n');
+            }
+            starts[i] = content.length();
+            content.append(lines.get(i));
+            ends[i] = content.length();
+        }
+        return new LineIndex(content.toString(), starts, ends);
+    }
+
+    /**
+     * Returns the lines of the contents of {@code file}. The index is cached for as long as the file
+     * returns the same {@link JavaFileObject#getCharContent content}.
+     */
+    static LineIndex of(JavaFileObject file) throws IOException {
+        CharSequence content = file.getCharContent(false);
+        LineIndex index = CACHE.get(file);
+        if (index == null || index.content != content) {
+            index = new LineIndex(content);
+            CACHE.put(file, index);
+        }
+        return index;
+    }
+
+    /** Matches the same characters as the {@code \R} pattern, except that {@code \r\n} is one break. */
+    private static boolean isLineBreak(char c) {
+        switch (c) {
+            case '\n':
+            case '\u000B':
+            case '\u000C':
+            case '\r':
+            case '\u0085':
+            case '\u2028':
+            case '\u2029':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** The number of lines. A text without line breaks has one line. */
+    int size() {
+        return size;
+    }
+
+    /** Returns a copy of a line, without its line break. */
+    String line(int index) {
+        return content.subSequence(starts[index], ends[index]).toString();
+    }
+
+    /** Returns whether a line is equal to {@code text}, without copying the line. */
+    boolean lineEquals(int index, String text) {
+        if (text == null) {
+            return false;
+        }
+        int start = starts[index];
+        int length = ends[index] - start;
+        if (text.length() != length) {
+            return false;
+        }
+        if (content instanceof String) {
+            return ((String) content).regionMatches(start, text, 0, length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (content.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a line matches the pattern of {@code matcher} entirely, without copying the
+     * line. The matcher has to be a {@linkplain #matcher matcher of this text}. Its region is set to
+     * the line, so the pattern does not see the other lines.
+     */
+    boolean lineMatches(int index, Matcher matcher) {
+        return matcher.region(starts[index], ends[index]).matches();
+    }
+
+    /** Returns a matcher of {@code pattern} over the whole text. */
+    Matcher matcher(Pattern pattern) {
+        return pattern.matcher(content);
+    }
+
+    /**
+     * Returns the {@link String#hashCode() hash codes} of the lines, without copying them. The array
+     * is computed once and must not be modified.
+     */
+    synchronized int[] hashes() {
+        if (hashes == null) {
+            int[] result = new int[size];
+            for (int line = 0; line < size; line++) {
+                int hash = 0;
+                for (int i = starts[line]; i < ends[line]; i++) {
+                    hash = 31 * hash + content.charAt(i);
+                }
+                result[line] = hash;
+            }
+            hashes = result;
+        }
+        return hashes;
+    }
+
+    /** Returns the lines without formatting. They are computed once. */
+    synchronized NormalizedLines normalized() {
+        if (normalized == null) {
+            normalized = NormalizedLines.of(lines());
+        }
+        return normalized;
+    }
+
+    /** Returns a list view of the lines. Each call to {@code get} copies a line. */
+    List<String> lines() {
+        return new Lines();
+    }
+
+    private final class Lines extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            }
+            return line(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package io.jbock.testing.compile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The lines of Java source code with formatting removed: comments are dropped, whitespace is removed
+ * except for a single space between adjacent words, or between operators that would otherwise run
+ * together, and lines that are empty after that are left out. String and character literals and the
+ * lines of text blocks are kept as they are, so two sources with equal normalized lines consist of
+ * the same tokens.
+ *
+ * <p>Each line is hashed to a {@code long}, so that lines can be compared by their hashes first.
+ */
+final class NormalizedLines {
+
+    private final String[] lines;
+    private final long[] hashes;
+    private final long hash;
+
+    private NormalizedLines(List<String> lines) {
+        this.lines = lines.toArray(new String[0]);
+        this.hashes = new long[this.lines.length];
+        long hash = this.lines.length;
+        for (int i = 0; i < this.lines.length; i++) {
+            hashes[i] = hash(this.lines[i]);
+            hash = 31 * hash + hashes[i];
+        }
+        this.hash = hash;
+    }
+
+    /** Normalizes {@code lines}, which may contain comments that span several lines. */
+    static NormalizedLines of(List<String> lines) {
+        Normalizer normalizer = new Normalizer();
+        List<String> result = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            boolean inTextBlock = normalizer.inTextBlock;
+            String normalized = normalizer.normalize(line);
+            if (inTextBlock || !normalized.isEmpty()) {
+                result.add(normalized);
+            }
+        }
+        return new NormalizedLines(result);
+    }
+
+    int size() {
+        return lines.length;
+    }
+
+    /** Returns whether the normalized line at {@code index} is equal to a line of {@code other}. */
+    boolean lineEquals(int index, NormalizedLines other, int otherIndex) {
+        return hashes[index] == other.hashes[otherIndex] && lines[index].equals(other.lines[otherIndex]);
+    }
+
+    /** A hash of all normalized lines. */
+    long hash() {
+        return hash;
+    }
+
+    /** Returns whether all normalized lines are equal to the lines of {@code other}. */
+    boolean sameLines(NormalizedLines other) {
+        if (hash != other.hash || lines.length != other.lines.length) {
+            return false;
+        }
+        for (int i = 0; i < lines.length; i++) {
+            if (!lineEquals(i, other, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The normalized lines. */
+    List<String> lines() {
+        return Arrays.asList(lines);
+    }
+
+    /** 64-bit FNV-1a. */
+    private static long hash(String line) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < line.length(); i++) {
+            hash ^= line.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Normalizes consecutive lines of a source file. */
+    private static final class Normalizer {
+        private static final String OPERATOR_CHARS = "=<>!~?:&|+-*/^%.";
+
+        private boolean inBlockComment;
+        private boolean inTextBlock;
+
+        String normalize(String line) {
+            StringBuilder result = new StringBuilder(line.length());
+            boolean lastWasWord = false;
+            boolean lastWasOperator = false;
+            boolean separated = false; // by whitespace or a comment since the last token
+            int i = 0;
+            int length = line.length();
+            while (i < length) {
+                char c = line.charAt(i);
+                if (inBlockComment) {
+                    int end = line.indexOf("*/", i);
+                    if (end < 0) {
+                        break;
+                    }
+                    inBlockComment = false;
+                    i = end + 2;
+                } else if (inTextBlock) {
+                    int end = endOfTextBlock(line, i);
+                    inTextBlock = end < 0;
+                    end = inTextBlock ? length : end;
+                    result.append(line, i, end);
+                    lastWasWord = true;
+                    lastWasOperator = false;
+                    separated = false;
+                    i = end;
+                } else if (Character.isWhitespace(c)) {
+                    separated = true;
+                    i++;
+                } else if (line.startsWith("//", i)) {
+                    break;
+                } else if (line.startsWith("/*", i)) {
+                    inBlockComment = true;
+                    separated = true;
+                    i += 2;
+                } else if (line.startsWith("\"\"\"", i)) {
+                    if (lastWasWord) {
+                        result.append(' ');
+                    }
+                    result.append("\"\"\"");
+                    inTextBlock = true;
+                    lastWasWord = true;
+                    lastWasOperator = false;
+                    separated = false;
+                    i = length; // the rest of the opening line is whitespace
+                } else if (c == '"' || c == '\'') {
+                    int end = endOfLiteral(line, i);
+                    if (lastWasWord) {
+                        result.append(' ');
+                    }
+                    result.append(line, i, end);
+                    lastWasWord = true;
+                    lastWasOperator = false;
+                    separated = false;
+                    i = end;
+                } else if (Character.isJavaIdentifierPart(c)) {
+                    int end = i + 1;
+                    while (end < length && Character.isJavaIdentifierPart(line.charAt(end))) {
+                        end++;
+                    }
+                    if (lastWasWord) {
+                        result.append(' ');
+                    }
+                    result.append(line, i, end);
+                    lastWasWord = true;
+                    lastWasOperator = false;
+                    separated = false;
+                    i = end;
+                } else {
+                    boolean operator = OPERATOR_CHARS.indexOf(c) >= 0;
+                    if (operator && lastWasOperator && separated) {
+                        result.append(' ');
+                    }
+                    result.append(c);
+                    lastWasWord = false;
+                    lastWasOperator = operator;
+                    separated = false;
+                    i++;
+                }
+            }
+            return result.toString();
+        }
+
+        /** Returns the end of the literal that starts at {@code start}, or the end of the line. */
+        private static int endOfLiteral(String line, int start) {
+            char quote = line.charAt(start);
+            for (int i = start + 1; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    return i + 1;
+                }
+            }
+            return line.length();
+        }
+
+        /** Returns the end of the closing delimiter of a text block, or {@code -1}. */
+        private static int endOfTextBlock(String line, int start) {
+            for (int i = start; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (line.startsWith("\"\"\"", i)) {
+                    return i + 3;
+                }
+            }
+            return -1;
+        }
+    }
+}
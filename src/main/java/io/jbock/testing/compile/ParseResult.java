@@ -0,0 +1,84 @@
+package io.jbock.testing.compile;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.SourcePositions;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * The syntax trees of source files that a {@link Compiler} {@linkplain Compiler#parse parsed},
+ * without compiling them.
+ *
+ * <p>The trees are not attributed: names are not resolved, and there are no types or symbols.
+ */
+public final class ParseResult {
+
+    private final List<JavaFileObject> sourceFiles;
+    private final List<CompilationUnitTree> compilationUnits;
+    private final SourcePositions sourcePositions;
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+
+    ParseResult(
+            List<JavaFileObject> sourceFiles,
+            List<CompilationUnitTree> compilationUnits,
+            SourcePositions sourcePositions,
+            List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        this.sourceFiles = List.copyOf(sourceFiles);
+        this.compilationUnits = List.copyOf(compilationUnits);
+        this.sourcePositions = sourcePositions;
+        this.diagnostics = List.copyOf(diagnostics);
+    }
+
+    /** The files that were parsed. */
+    public List<JavaFileObject> sourceFiles() {
+        return sourceFiles;
+    }
+
+    /** The trees of the files that were parsed, in the order of the {@link #sourceFiles()}. */
+    public List<CompilationUnitTree> compilationUnits() {
+        return compilationUnits;
+    }
+
+    /** The positions of the trees in their source files. */
+    SourcePositions sourcePositions() {
+        return sourcePositions;
+    }
+
+    /** All diagnostics that were reported while parsing, such as syntax errors. */
+    public List<Diagnostic<? extends JavaFileObject>> diagnostics() {
+        return diagnostics;
+    }
+
+    /** The syntax errors. */
+    public List<Diagnostic<? extends JavaFileObject>> errors() {
+        return diagnostics.stream()
+                .filter(diagnostic -> diagnostic.getKind() == ERROR)
+                .collect(Collectors.toList());
+    }
+
+    /** Returns whether parsing reported no errors. */
+    public boolean succeeded() {
+        return errors().isEmpty();
+    }
+
+    /** The fully qualified names of the top-level types that the files declare. */
+    public Set<String> topLevelTypes() {
+        Set<String> result = new LinkedHashSet<>();
+        for (CompilationUnitTree compilationUnit : compilationUnits) {
+            result.addAll(TypeEnumerator.getTopLevelTypes(compilationUnit));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "parse of " + sourceFiles.stream().map(JavaFileObject::getName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,117 @@
+package io.jbock.testing.compile;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.SourcePositions;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static javax.tools.Diagnostic.Kind.ERROR;
+import static javax.tools.ToolProvider.getSystemJavaCompiler;
+
+/**
+ * The syntax tree of a source file, parsed without compiling it. Parsing does not resolve any
+ * names, so the tree only describes the text of the file.
+ *
+ * <p>Trees are not cached: they belong to the compiler task that parsed them, so they are only
+ * kept for as long as the assertion that needs them. Files that are compared with each other are
+ * parsed together, by a single compiler task.
+ */
+final class ParsedSource {
+
+    private final CharSequence content;
+    private final CompilationUnitTree tree;
+    private final SourcePositions positions;
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+
+    private ParsedSource(
+            CharSequence content,
+            CompilationUnitTree tree,
+            SourcePositions positions,
+            List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        this.content = content;
+        this.tree = tree;
+        this.positions = positions;
+        this.diagnostics = diagnostics;
+    }
+
+    /** Parses {@code files} with {@code javac}. */
+    static List<ParsedSource> parse(List<JavaFileObject> files) {
+        return parse(getSystemJavaCompiler(), files);
+    }
+
+    /**
+     * Parses {@code files} with {@code javaCompiler}, which has to be {@code javac}.
+     *
+     * @return the parsed files, in the same order as {@code files}
+     */
+    static List<ParsedSource> parse(JavaCompiler javaCompiler, List<JavaFileObject> files) {
+        if (files.isEmpty()) {
+            return List.of();
+        }
+        ParseResult result = Compiler.compiler(javaCompiler).parse(files);
+        // the trees are in the order of the files
+        List<ParsedSource> parsed = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            CompilationUnitTree tree = result.compilationUnits().get(i);
+            JavaFileObject file = files.get(i);
+            List<Diagnostic<? extends JavaFileObject>> diagnostics =
+                    result.diagnostics().stream()
+                            .filter(diagnostic -> diagnostic.getSource() == file
+                                    || diagnostic.getSource() == tree.getSourceFile())
+                            .collect(Collectors.toList());
+            parsed.add(new ParsedSource(content(file), tree, result.sourcePositions(), diagnostics));
+        }
+        return parsed;
+    }
+
+    private static CharSequence content(JavaFileObject file) {
+        try {
+            return file.getCharContent(false);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Couldn't read from JavaFileObject when it was already in memory.", e);
+        }
+    }
+
+    /** The tree of the whole file. */
+    CompilationUnitTree tree() {
+        return tree;
+    }
+
+    /** The diagnostics that parsing reported, such as syntax errors. */
+    List<Diagnostic<? extends JavaFileObject>> diagnostics() {
+        return diagnostics;
+    }
+
+    /** Returns the syntax errors. */
+    List<Diagnostic<? extends JavaFileObject>> errors() {
+        return diagnostics.stream()
+                .filter(diagnostic -> diagnostic.getKind() == ERROR)
+                .collect(Collectors.toList());
+    }
+
+    /** Returns the line where {@code node} starts, or {@code -1} if its position is unknown. */
+    long line(Tree node) {
+        long start = positions.getStartPosition(tree, node);
+        return start < 0 ? -1 : tree.getLineMap().getLineNumber(start);
+    }
+
+    /** Returns the first line of the source of {@code node}, or its kind if its position is unknown. */
+    String source(Tree node) {
+        long start = positions.getStartPosition(tree, node);
+        long end = positions.getEndPosition(tree, node);
+        if (start < 0 || end < start || end > content.length()) {
+            return node.getKind().toString();
+        }
+        String source = content.subSequence((int) start, (int) end).toString().strip();
+        int lineBreak = source.indexOf('\n');
+        return lineBreak < 0 ? source : source.substring(0, lineBreak).strip() + " ...";
+    }
+}
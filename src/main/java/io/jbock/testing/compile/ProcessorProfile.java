@@ -0,0 +1,197 @@
+package io.jbock.testing.compile;
+
+import io.jbock.testing.compile.CompilationTimings.Stopwatch;
+import io.jbock.testing.compile.CompilationTimings.Timing;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The time that an annotation processor spent in a {@link Compilation}, and the number of files
+ * that it created.
+ *
+ * <p>Times include the work that the processor caused in the compiler, for example completing the
+ * types that it looked at.
+ */
+public final class ProcessorProfile {
+
+    private final String processorName;
+    private final Timing init;
+    private final List<Timing> rounds;
+    private final int filesCreated;
+
+    private ProcessorProfile(String processorName, Timing init, List<Timing> rounds, int filesCreated) {
+        this.processorName = processorName;
+        this.init = init;
+        this.rounds = rounds;
+        this.filesCreated = filesCreated;
+    }
+
+    /** The name of the processor, as in {@link Compilation#toString()}. */
+    public String processorName() {
+        return processorName;
+    }
+
+    /** The time spent in {@link Processor#init}. */
+    public Timing init() {
+        return init;
+    }
+
+    /**
+     * The time spent in {@link Processor#process} in each annotation processing round of the
+     * compilation. It is {@link Timing#ZERO} for rounds where the processor was not called.
+     */
+    public List<Timing> rounds() {
+        return rounds;
+    }
+
+    /** The time spent in {@link Processor#init} and all rounds. */
+    public Timing total() {
+        Timing total = init;
+        for (Timing round : rounds) {
+            total = total.plus(round);
+        }
+        return total;
+    }
+
+    /** The number of source, class and resource files that the processor created. */
+    public int filesCreated() {
+        return filesCreated;
+    }
+
+    @Override
+    public String toString() {
+        return processorName + ": total " + total() + ", init " + init + ", rounds " + rounds
+                + ", files created " + filesCreated;
+    }
+
+    /**
+     * Measures the processors of one compilation. The processors must only be called on the thread
+     * that runs the compiler, but they may create files from other threads while they run.
+     */
+    static final class Profiler {
+        private final List<ProfilingProcessor> processors = new ArrayList<>();
+        private final Map<RoundEnvironment, Integer> roundNumbers = new IdentityHashMap<>();
+        private volatile ProfilingProcessor current;
+
+        /** Returns processors that delegate to {@code processors} and measure them. */
+        List<Processor> wrap(List<Processor> processors, List<String> processorNames) {
+            List<Processor> result = new ArrayList<>(processors.size());
+            for (int i = 0; i < processors.size(); i++) {
+                ProfilingProcessor processor =
+                        new ProfilingProcessor(this, processors.get(i), processorNames.get(i));
+                this.processors.add(processor);
+                result.add(processor);
+            }
+            return result;
+        }
+
+        /** Counts a file that was created by the processor that is currently running, if any. */
+        void fileCreated() {
+            if (current != null) {
+                current.filesCreated.incrementAndGet();
+            }
+        }
+
+        List<ProcessorProfile> profiles() {
+            List<ProcessorProfile> result = new ArrayList<>(processors.size());
+            for (ProfilingProcessor processor : processors) {
+                List<Timing> rounds = new ArrayList<>(roundNumbers.size());
+                for (int round = 0; round < roundNumbers.size(); round++) {
+                    Stopwatch stopwatch = processor.rounds.get(round);
+                    rounds.add(stopwatch == null ? Timing.ZERO : stopwatch.timing());
+                }
+                result.add(new ProcessorProfile(
+                        processor.name, processor.init.timing(), List.copyOf(rounds), processor.filesCreated.get()));
+            }
+            return List.copyOf(result);
+        }
+
+        private int roundNumber(RoundEnvironment roundEnv) {
+            return roundNumbers.computeIfAbsent(roundEnv, r -> roundNumbers.size());
+        }
+    }
+
+    private static final class ProfilingProcessor implements Processor {
+        private final Profiler profiler;
+        private final Processor delegate;
+        private final String name;
+        private final Stopwatch init = new Stopwatch();
+        private final Map<Integer, Stopwatch> rounds = new HashMap<>();
+        private final AtomicInteger filesCreated = new AtomicInteger();
+
+        ProfilingProcessor(Profiler profiler, Processor delegate, String name) {
+            this.profiler = profiler;
+            this.delegate = delegate;
+            this.name = name;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(ProcessingEnvironment processingEnv) {
+            ProfilingProcessor previous = profiler.current;
+            profiler.current = this;
+            init.start();
+            try {
+                delegate.init(processingEnv);
+            } finally {
+                init.stop();
+                profiler.current = previous;
+            }
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            Stopwatch round =
+                    rounds.computeIfAbsent(profiler.roundNumber(roundEnv), r -> new Stopwatch());
+            ProfilingProcessor previous = profiler.current;
+            profiler.current = this;
+            round.start();
+            try {
+                return delegate.process(annotations, roundEnv);
+            } finally {
+                round.stop();
+                profiler.current = previous;
+            }
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(
+                Element element, AnnotationMirror annotation, ExecutableElement member, String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -1,47 +1,133 @@
 package io.jbock.testing.compile;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
- * A class for determining whether one list of strings is a subsequence of the other.
+ * A class for determining whether a list of strings is a subsequence of the lines of a text.
  */
 class SubsequenceChecker {
 
     /**
-     * <p>If the {@code subsequence} is not a subsequence of the {@code actual},
+     * <p>If the {@code subsequence} is not a subsequence of the {@code actual} lines,
      * returns a {@code SubsequenceReport} describing the sequences and where exactly
      * the subsequence test has failed.
      *
      * <p>Otherwise returns an empty {@code Optional}.
      */
     static Optional<SubsequenceReport> checkSubsequence(
-            List<String> actual,
+            LineIndex actual,
             List<String> subsequence) {
-        final int subsequenceSize = subsequence.size();
-        final int actualSize = actual.size();
+        int index = firstUnmatched(actual, subsequence);
+        if (index < 0) {
+            return Optional.empty();
+        }
+        int[] matches = new int[subsequence.size()]; // subsequence index -> actual index
+        int[] inverseMatches = new int[actual.size()]; // actual index -> subsequence index
+        Arrays.fill(matches, -1);
+        Arrays.fill(inverseMatches, -1);
+        int actualIndex = 0;
+        for (int i = 0; i < index; i++) {
+            actualIndex = indexOf(actual, subsequence.get(i), actualIndex);
+            matches[i] = actualIndex;
+            inverseMatches[actualIndex] = i;
+            actualIndex++;
+        }
+        int lastMatchIndex = actualIndex - 1;
+        return Optional.of(SubsequenceReport.create(actual,
+                subsequence, index, matches, inverseMatches, lastMatchIndex));
+    }
 
-        Map<Integer, Integer> inverseMatches = new HashMap<>(subsequenceSize);
-        Map<Integer, Integer> matches = new HashMap<>(subsequenceSize);
+    /**
+     * Like {@link #checkSubsequence(LineIndex, List)}, but compares normalized lines. The report
+     * lists the normalized lines.
+     */
+    static Optional<SubsequenceReport> checkSubsequenceIgnoringFormatting(
+            NormalizedLines actual,
+            NormalizedLines subsequence) {
         int actualIndex = 0;
-        outer:
-        for (int index = 0; index < subsequenceSize; index++) {
-            String subsequenceToken = subsequence.get(index);
-            for (int i = actualIndex; i < actualSize; i++) {
-                if (Objects.equals(subsequenceToken, actual.get(i))) {
-                    matches.put(index, i);
-                    inverseMatches.put(i, index);
-                    actualIndex = i + 1;
-                    continue outer;
-                }
+        for (int index = 0; index < subsequence.size(); index++) {
+            while (actualIndex < actual.size() && !actual.lineEquals(actualIndex, subsequence, index)) {
+                actualIndex++;
             }
-            int lastMatchIndex = actualIndex - 1;
-            return Optional.of(SubsequenceReport.create(actual,
-                    subsequence, index, matches, inverseMatches, lastMatchIndex));
+            if (actualIndex == actual.size()) {
+                return checkSubsequence(LineIndex.ofLines(actual.lines()), subsequence.lines());
+            }
+            actualIndex++;
         }
         return Optional.empty();
     }
+
+    /**
+     * Like {@link #checkSubsequence(LineIndex, List)}, but each line of the {@code subsequence} is a
+     * regular expression that has to match an entire line.
+     *
+     * <p>Each expression is compiled on its own and matched against one line at a time, so it cannot
+     * match across a line break, and its groups and back-references only refer to that line. All
+     * expressions are compiled before the lines are scanned, so an invalid expression fails the
+     * check right away. The lines are scanned once: each expression is tried on the lines after the
+     * match of the previous one, with a single matcher that is moved from line to line.
+     */
+    static Optional<SubsequenceReport> checkSubsequenceMatching(
+            LineIndex actual,
+            List<String> subsequence) {
+        Pattern[] patterns = new Pattern[subsequence.size()];
+        for (int index = 0; index < patterns.length; index++) {
+            patterns[index] = Pattern.compile(subsequence.get(index));
+        }
+        int[] matches = new int[subsequence.size()];
+        int[] inverseMatches = new int[actual.size()];
+        Arrays.fill(matches, -1);
+        Arrays.fill(inverseMatches, -1);
+        Matcher matcher = null;
+        int actualIndex = 0;
+        for (int index = 0; index < patterns.length; index++) {
+            if (matcher == null) {
+                matcher = actual.matcher(patterns[index]);
+            } else {
+                matcher.usePattern(patterns[index]);
+            }
+            while (actualIndex < actual.size() && !actual.lineMatches(actualIndex, matcher)) {
+                actualIndex++;
+            }
+            if (actualIndex == actual.size()) {
+                int lastMatchIndex = index == 0 ? -1 : matches[index - 1];
+                return Optional.of(SubsequenceReport.create(actual,
+                        subsequence, index, matches, inverseMatches, lastMatchIndex));
+            }
+            matches[index] = actualIndex;
+            inverseMatches[actualIndex] = index;
+            actualIndex++;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the index in {@code subsequence} of the first token that has no match in {@code actual},
+     * or {@code -1} if {@code subsequence} is a subsequence of {@code actual}. Tokens are matched
+     * greedily, each to the first equal token after the previous match.
+     */
+    private static int firstUnmatched(LineIndex actual, List<String> subsequence) {
+        int actualIndex = 0;
+        for (int index = 0; index < subsequence.size(); index++) {
+            actualIndex = indexOf(actual, subsequence.get(index), actualIndex);
+            if (actualIndex < 0) {
+                return index;
+            }
+            actualIndex++;
+        }
+        return -1;
+    }
+
+    private static int indexOf(LineIndex actual, String token, int fromIndex) {
+        for (int i = fromIndex; i < actual.size(); i++) {
+            if (actual.lineEquals(i, token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
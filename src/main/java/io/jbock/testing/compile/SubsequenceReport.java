@@ -1,35 +1,44 @@
 package io.jbock.testing.compile;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.function.IntFunction;
 import java.util.stream.IntStream;
 
 /**
  * A data structure describing the result of a failed subsequence check.
+ *
+ * <p>The listings of the sequences and the diff are limited to {@value #DEFAULT_MAX_LINES} lines
+ * each, or to the value of the system property {@value #MAX_LINES_PROPERTY}. Longer listings only
+ * show the lines around the mismatch.
  */
 class SubsequenceReport {
 
+    static final String MAX_LINES_PROPERTY = "io.jbock.testing.compile.maxReportLines";
+    static final int DEFAULT_MAX_LINES = 200;
+    private static final int DIFF_CONTEXT = 3;
+
     private final String unmatchedToken; // first unmatched token in subsequence
     private final int index; // index in subsequence of first unmatched token
     private final int lastMatchIndex; // index in actual of last match
-    private final Map<Integer, Integer> matches; // subsequence index -> actual index
-    private final Map<Integer, Integer> inverseMatches; // actual index -> subsequence index
+    private final int[] matches; // subsequence index -> actual index, or -1
+    private final int[] inverseMatches; // actual index -> subsequence index, or -1
 
     private final List<String> subsequence;
     private final int subsequenceSize;
 
-    private final List<String> actual;
+    private final LineIndex actual;
     private final int actualSize;
+    private final int maxLines;
 
     private SubsequenceReport(
-            List<String> actual,
+            LineIndex actual,
             List<String> subsequence,
             int index,
             int lastMatchIndex,
-            Map<Integer, Integer> matches,
-            Map<Integer, Integer> inverseMatches,
+            int[] matches,
+            int[] inverseMatches,
             String unmatchedToken,
             int subsequenceSize,
             int actualSize) {
@@ -42,14 +51,15 @@ class SubsequenceReport {
         this.unmatchedToken = Objects.requireNonNull(unmatchedToken);
         this.subsequenceSize = subsequenceSize;
         this.actualSize = actualSize;
+        this.maxLines = Math.max(1, Integer.getInteger(MAX_LINES_PROPERTY, DEFAULT_MAX_LINES));
     }
 
     static SubsequenceReport create(
-            List<String> actual,
+            LineIndex actual,
             List<String> subsequence,
             int index,
-            Map<Integer, Integer> matches,
-            Map<Integer, Integer> inverseMatches,
+            int[] matches,
+            int[] inverseMatches,
             int lastMatchIndex) {
         int actualSize = actual.size();
         int subsequenceSize = subsequence.size();
@@ -70,38 +80,60 @@ class SubsequenceReport {
         return String.join("\n", getSubsequenceLines());
     }
 
+    /**
+     * Returns the hunks of a minimal diff from the subsequence to the actual lines that contain
+     * subsequence lines which are missing from the actual lines.
+     */
+    String getDiff() {
+        return LineDiff.diff(subsequence, actual).hunks(DIFF_CONTEXT, maxLines);
+    }
+
     private List<String> getActualLines() {
-        return IntStream.range(0, actualSize)
-                .mapToObj(i -> {
-                    boolean isLastMatch = i == lastMatchIndex;
-                    String suffix = i == actualSize - 1 ? "" : ",";
-                    Integer subsequenceIndex = inverseMatches.get(i);
-                    if (subsequenceIndex != null) {
-                        suffix += " // " + subsequenceIndex;
-                    }
-                    if (isLastMatch) {
-                        suffix += ", last match";
-                    }
-                    return toStringLiteral(actual.get(i)) + suffix;
-                })
-                .collect(Collectors.toList());
+        return window(actualSize, Math.max(lastMatchIndex, 0), i -> {
+            boolean isLastMatch = i == lastMatchIndex;
+            String suffix = i == actualSize - 1 ? "" : ",";
+            int subsequenceIndex = inverseMatches[i];
+            if (subsequenceIndex >= 0) {
+                suffix += " // " + subsequenceIndex;
+            }
+            if (isLastMatch) {
+                suffix += ", last match";
+            }
+            return toStringLiteral(actual.line(i)) + suffix;
+        });
     }
 
     private List<String> getSubsequenceLines() {
-        return IntStream.range(0, subsequenceSize)
-                .mapToObj(i -> {
-                    boolean isUnmatchedToken = i == index;
-                    String suffix = i == subsequenceSize - 1 ? "" : ",";
-                    Integer actualIndex = matches.get(i);
-                    if (actualIndex != null) {
-                        suffix += " // " + actualIndex;
-                    }
-                    if (isUnmatchedToken) {
-                        suffix += " // no match";
-                    }
-                    return toStringLiteral(subsequence.get(i)) + suffix;
-                })
-                .collect(Collectors.toList());
+        return window(subsequenceSize, index, i -> {
+            boolean isUnmatchedToken = i == index;
+            String suffix = i == subsequenceSize - 1 ? "" : ",";
+            int actualIndex = matches[i];
+            if (actualIndex >= 0) {
+                suffix += " // " + actualIndex;
+            }
+            if (isUnmatchedToken) {
+                suffix += " // no match";
+            }
+            return toStringLiteral(subsequence.get(i)) + suffix;
+        });
+    }
+
+    /**
+     * Lists at most {@code maxLines} of {@code size} lines around the line at {@code center}, and
+     * says how many lines were left out before and after them.
+     */
+    private List<String> window(int size, int center, IntFunction<String> line) {
+        int start = Math.max(0, Math.min(center - maxLines / 2, size - maxLines));
+        int end = Math.min(size, start + maxLines);
+        List<String> result = new ArrayList<>(end - start + 2);
+        if (start > 0) {
+            result.add("... (" + start + " lines)");
+        }
+        IntStream.range(start, end).mapToObj(line).forEach(result::add);
+        if (end < size) {
+            result.add("... (" + (size - end) + " lines)");
+        }
+        return result;
     }
 
     private String toStringLiteral(String token) {
@@ -0,0 +1,362 @@
+package io.jbock.testing.compile;
+
+import com.sun.source.tree.BlockTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the syntax trees of two source files.
+ *
+ * <p>Two trees are equal if they have the same {@linkplain Tree#getKind() kind} and all their
+ * properties are equal. The properties of a tree are the results of the getters of its {@linkplain
+ * Tree.Kind#asInterface() interface}, such as {@link MethodTree#getName()} or {@link
+ * MethodTree#getBody()}, so every kind of tree is compared without a visitor method for it. Names
+ * are compared by their contents, because the trees of different compiler tasks have different name
+ * tables.
+ */
+final class TreeDiffer {
+
+    private static final Map<Tree.Kind, List<Method>> PROPERTIES = new ConcurrentHashMap<>();
+    private static final Set<String> TREE_METHODS = Arrays.stream(Tree.class.getMethods())
+            .map(Method::getName)
+            .collect(Collectors.toSet());
+
+    /** Getters that do not describe the source: the line map and the file of a compilation unit. */
+    private static final Set<String> IGNORED_GETTERS = Set.of(
+            "CompilationUnitTree.getLineMap",
+            "CompilationUnitTree.getSourceFile");
+
+    /**
+     * Getters that are left out where they are deprecated, because another getter returns the same
+     * trees. {@code CaseTree.getExpression()} is the first of {@code getExpressions()} since JDK 12.
+     */
+    private static final Set<String> SUPERSEDED_GETTERS = Set.of("CaseTree.getExpression");
+
+    private final ParsedSource expected;
+    private final ParsedSource actual;
+    // the names of the classes, methods and fields around the trees that are compared
+    private final Deque<String> path = new ArrayDeque<>();
+
+    private TreeDiffer(ParsedSource expected, ParsedSource actual) {
+        this.expected = expected;
+        this.actual = actual;
+    }
+
+    /** Returns the first difference between the trees of two files, if there is one. */
+    static Optional<Difference> diff(ParsedSource expected, ParsedSource actual) {
+        return new TreeDiffer(expected, actual).diff(expected.tree(), actual.tree());
+    }
+
+    /**
+     * Returns the first element of {@code expected} that the actual file does not contain, if there
+     * is one. Each import and type of {@code expected} has to be equal to one in the actual file,
+     * except that a class may have more members than the expected class, and nested classes are
+     * matched the same way.
+     */
+    static Optional<Difference> findMissingElement(ParsedSource expected, ParsedSource actual) {
+        return new TreeDiffer(expected, actual).match(expected.tree(), actual.tree());
+    }
+
+    private Optional<Difference> match(CompilationUnitTree expectedTree, CompilationUnitTree actualTree) {
+        if (expectedTree.getPackageName() != null) {
+            Optional<Difference> difference = diffValue(
+                    "package", expectedTree, actualTree,
+                    expectedTree.getPackageName(), actualTree.getPackageName());
+            if (difference.isPresent()) {
+                return difference;
+            }
+        }
+        for (ImportTree expectedImport : expectedTree.getImports()) {
+            boolean found = actualTree.getImports().stream()
+                    .anyMatch(actualImport -> diff(expectedImport, actualImport).isEmpty());
+            if (!found) {
+                return Optional.of(missing(expectedImport));
+            }
+        }
+        return matchMembers(expectedTree.getTypeDecls(), actualTree.getTypeDecls());
+    }
+
+    private Optional<Difference> matchClass(ClassTree expectedTree, ClassTree actualTree) {
+        path.addLast(expectedTree.getSimpleName().toString());
+        try {
+            Optional<Difference> difference = diffProperties(expectedTree, actualTree, "getMembers");
+            if (difference.isPresent()) {
+                return difference;
+            }
+            return matchMembers(expectedTree.getMembers(), actualTree.getMembers());
+        } finally {
+            path.removeLast();
+        }
+    }
+
+    /**
+     * Checks that each of the {@code expectedMembers} matches one of the {@code actualMembers} that
+     * has the same name. If none of them match, returns the difference to the first one.
+     */
+    private Optional<Difference> matchMembers(
+            List<? extends Tree> expectedMembers,
+            List<? extends Tree> actualMembers) {
+        for (Tree expectedMember : expectedMembers) {
+            Optional<Difference> firstDifference = Optional.empty();
+            boolean found = false;
+            for (Tree actualMember : actualMembers) {
+                if (expectedMember.getKind() != actualMember.getKind()
+                        || !Objects.equals(name(expectedMember), name(actualMember))) {
+                    continue;
+                }
+                Optional<Difference> difference = expectedMember instanceof ClassTree
+                        ? matchClass((ClassTree) expectedMember, (ClassTree) actualMember)
+                        : diff(expectedMember, actualMember);
+                if (difference.isEmpty()) {
+                    found = true;
+                    break;
+                }
+                if (firstDifference.isEmpty()) {
+                    firstDifference = difference;
+                }
+            }
+            if (!found) {
+                return firstDifference.isPresent() ? firstDifference : Optional.of(missing(expectedMember));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /** The name that identifies a member, or {@code null} if it has none. */
+    private static String name(Tree member) {
+        if (member instanceof ClassTree) {
+            return ((ClassTree) member).getSimpleName().toString();
+        }
+        if (member instanceof MethodTree) {
+            return ((MethodTree) member).getName().toString();
+        }
+        if (member instanceof VariableTree) {
+            return ((VariableTree) member).getName().toString();
+        }
+        if (member instanceof BlockTree) {
+            return ((BlockTree) member).isStatic() ? "static" : "";
+        }
+        return null;
+    }
+
+    private Optional<Difference> diff(Tree expectedTree, Tree actualTree) {
+        if (expectedTree.getKind() != actualTree.getKind()) {
+            return Optional.of(difference(
+                    "Expected " + describe(expected, expectedTree)
+                            + " but found " + describe(actual, actualTree) + "."));
+        }
+        String name = expectedTree instanceof BlockTree ? null : name(expectedTree);
+        if (name != null) {
+            path.addLast(name);
+        }
+        try {
+            return diffProperties(expectedTree, actualTree, null);
+        } finally {
+            if (name != null) {
+                path.removeLast();
+            }
+        }
+    }
+
+    private Optional<Difference> diffProperties(Tree expectedTree, Tree actualTree, String skipped) {
+        for (Method property : properties(expectedTree.getKind())) {
+            if (property.getName().equals(skipped)) {
+                continue;
+            }
+            Object expectedValue = get(property, expectedTree);
+            Object actualValue = get(property, actualTree);
+            Optional<Difference> difference = diffValue(
+                    propertyName(property), expectedTree, actualTree, expectedValue, actualValue);
+            if (difference.isPresent()) {
+                return difference;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<Difference> diffValue(
+            String property, Tree expectedParent, Tree actualParent, Object expectedValue, Object actualValue) {
+        if (expectedValue == null || actualValue == null) {
+            if (expectedValue == actualValue) {
+                return Optional.empty();
+            }
+            return Optional.of(difference(String.format(
+                    "Expected %s of %s to be %s but was %s.",
+                    property, describe(actual, actualParent),
+                    expectedValue == null ? "absent" : describeValue(expected, expectedValue),
+                    actualValue == null ? "absent" : describeValue(actual, actualValue))));
+        }
+        if (expectedValue instanceof Tree && actualValue instanceof Tree) {
+            return diff((Tree) expectedValue, (Tree) actualValue);
+        }
+        if (expectedValue instanceof List && actualValue instanceof List) {
+            List<?> expectedList = (List<?>) expectedValue;
+            List<?> actualList = (List<?>) actualValue;
+            int size = Math.min(expectedList.size(), actualList.size());
+            for (int i = 0; i < size; i++) {
+                Optional<Difference> difference = diffValue(
+                        property, expectedParent, actualParent, expectedList.get(i), actualList.get(i));
+                if (difference.isPresent()) {
+                    return difference;
+                }
+            }
+            if (expectedList.size() != actualList.size()) {
+                return Optional.of(difference(String.format(
+                        "Expected %d %s in %s but found %d in %s.",
+                        expectedList.size(), property, describe(expected, expectedParent),
+                        actualList.size(), describe(actual, actualParent))));
+            }
+            return Optional.empty();
+        }
+        boolean equal = expectedValue instanceof CharSequence && actualValue instanceof CharSequence
+                ? expectedValue.toString().contentEquals((CharSequence) actualValue)
+                : expectedValue.equals(actualValue);
+        if (equal) {
+            return Optional.empty();
+        }
+        return Optional.of(difference(String.format(
+                "Expected %s of %s to be <%s> but was <%s>.",
+                property, describe(actual, actualParent), expectedValue, actualValue)));
+    }
+
+    /**
+     * The getters of the interface of a kind of tree, by name, except for the {@linkplain
+     * #IGNORED_GETTERS ignored} and {@linkplain #SUPERSEDED_GETTERS superseded} ones. Visible for
+     * testing.
+     *
+     * @throws IllegalStateException if a getter returns something other than trees, lists, names
+     *     or values, so that a getter that a newer JDK adds is not silently left out
+     */
+    static List<Method> properties(Tree.Kind kind) {
+        return PROPERTIES.computeIfAbsent(kind, k -> {
+            List<Method> result = new ArrayList<>();
+            for (Method method : k.asInterface().getMethods()) {
+                if (method.getParameterCount() != 0
+                        || Modifier.isStatic(method.getModifiers())
+                        || TREE_METHODS.contains(method.getName())
+                        || isIgnored(method)) {
+                    continue;
+                }
+                if (!isComparable(method.getReturnType())) {
+                    throw new IllegalStateException(String.format(
+                            "Couldn't compare %s trees: %s returns %s",
+                            k, getterName(method), method.getReturnType().getName()));
+                }
+                result.add(method);
+            }
+            result.sort(Comparator.comparing(Method::getName));
+            return result;
+        });
+    }
+
+    private static boolean isIgnored(Method getter) {
+        String name = getterName(getter);
+        return IGNORED_GETTERS.contains(name)
+                || (SUPERSEDED_GETTERS.contains(name) && getter.isAnnotationPresent(Deprecated.class));
+    }
+
+    /** Returns a name such as {@code MethodTree.getBody}. */
+    private static String getterName(Method getter) {
+        return getter.getDeclaringClass().getSimpleName() + '.' + getter.getName();
+    }
+
+    private static boolean isComparable(Class<?> type) {
+        return Tree.class.isAssignableFrom(type)
+                || type == List.class
+                || type == Set.class
+                || type == Object.class
+                || CharSequence.class.isAssignableFrom(type)
+                || type.isEnum()
+                || type.isPrimitive();
+    }
+
+    private static Object get(Method property, Tree tree) {
+        try {
+            return property.invoke(tree);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(
+                    "Couldn't compare " + tree.getKind() + " trees: " + property.getName() + " failed",
+                    e.getCause());
+        }
+    }
+
+    /** Turns {@code getTypeDecls} into {@code typeDecls}. */
+    private static String propertyName(Method property) {
+        String name = property.getName();
+        int start = name.startsWith("get") ? 3 : name.startsWith("is") ? 2 : 0;
+        return Character.toLowerCase(name.charAt(start)) + name.substring(start + 1);
+    }
+
+    private Difference missing(Tree expectedTree) {
+        return difference("Expected " + describe(expected, expectedTree) + ", but found none.");
+    }
+
+    private Difference difference(String message) {
+        return new Difference(message, String.join(".", path));
+    }
+
+    private static String describe(ParsedSource source, Tree tree) {
+        long line = source.line(tree);
+        return tree.getKind() + " `" + source.source(tree) + "`" + (line < 0 ? "" : " on line " + line);
+    }
+
+    private static String describeValue(ParsedSource source, Object value) {
+        if (value instanceof Tree) {
+            return describe(source, (Tree) value);
+        }
+        if (value instanceof List) {
+            List<String> elements = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                elements.add(describeValue(source, element));
+            }
+            return elements.toString();
+        }
+        return "<" + value + ">";
+    }
+
+    /** The first difference between two trees. */
+    static final class Difference {
+        private final String message;
+        private final String path;
+
+        private Difference(String message, String path) {
+            this.message = message;
+            this.path = path;
+        }
+
+        /** Describes the difference. */
+        String message() {
+            return message;
+        }
+
+        /**
+         * The names of the classes, methods and fields around the difference, separated by dots, or
+         * an empty string if it is not in a class.
+         */
+        String path() {
+            return path;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 module com.google.testing.compile {
     requires java.compiler;
-    requires jdk.compiler;
+    requires java.management;
+    // ParseResult.compilationUnits() returns com.sun.source trees
+    requires transitive jdk.compiler;
     requires com.google.auto.value;
     requires io.jbock.common.truth;
     requires org.junit.jupiter.api;
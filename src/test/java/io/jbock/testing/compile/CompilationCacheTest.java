@@ -0,0 +1,169 @@
+package io.jbock.testing.compile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaFileObject;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.jbock.common.truth.Truth.assertThat;
+import static io.jbock.testing.compile.CompilationSubject.assertThat;
+import static io.jbock.testing.compile.Compiler.javac;
+import static javax.tools.StandardLocation.SOURCE_OUTPUT;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Tests for {@link CompilationCache}. */
+class CompilationCacheTest {
+
+    private static final JavaFileObject HELLO_WORLD =
+            JavaFileObjects.forSourceLines("test.HelloWorld", "package test;", "final class HelloWorld {}");
+
+    private static final JavaFileObject BROKEN =
+            JavaFileObjects.forSourceLines("test.Broken", "package test;", "final class Broken { Missing m; }");
+
+    private final AtomicInteger processorCount = new AtomicInteger();
+
+    private Compiler compiler(CompilationCache cache) {
+        return javac()
+                .withProcessorFactories(() -> {
+                    processorCount.incrementAndGet();
+                    return new GeneratingProcessor();
+                })
+                .withCache(cache);
+    }
+
+    @Test
+    void cachedResultIsReused() {
+        Compiler compiler = compiler(CompilationCache.inMemory(4));
+        Compilation first = compiler.compile(HELLO_WORLD);
+        Compilation second = compiler.compile(
+                JavaFileObjects.forSourceLines("test.HelloWorld", "package test;", "final class HelloWorld {}"));
+        assertThat(second).succeeded();
+        assertThat(second.generatedFiles()).hasSize(first.generatedFiles().size());
+        assertThat(second.sourceFiles().get(0)).isNotSameInstanceAs(first.sourceFiles().get(0));
+        assertThat(second)
+                .generatedSourceFile(GeneratingProcessor.GENERATED_CLASS_NAME)
+                .contentsAsUtf8String()
+                .isEqualTo(GeneratingProcessor.GENERATED_SOURCE);
+    }
+
+    @Test
+    void changedSourceIsCompiled() {
+        CompilationCache cache = CompilationCache.inMemory(4);
+        Compiler compiler = javac().withCache(cache);
+        assertThat(compiler.compile(HELLO_WORLD)).succeeded();
+        assertThat(compiler.compile(BROKEN)).failed();
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void changedOptionsAreCompiled() {
+        CompilationCache cache = CompilationCache.inMemory(4);
+        assertThat(javac().withCache(cache).compile(HELLO_WORLD)).succeeded();
+        assertThat(javac().withCache(cache).withOptions("-Xlint").compile(HELLO_WORLD)).succeeded();
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void hitsHaveTheirOwnGeneratedFiles() throws Exception {
+        Compiler compiler = compiler(CompilationCache.inMemory(4));
+        Compilation first = compiler.compile(HELLO_WORLD);
+        Compilation hit = compiler.compile(HELLO_WORLD);
+        JavaFileObject generated = hit.generatedFile(SOURCE_OUTPUT, "Blah.java").orElseThrow();
+        assertThat(generated).isNotSameInstanceAs(
+                first.generatedFile(SOURCE_OUTPUT, "Blah.java").orElseThrow());
+        try (Writer writer = generated.openWriter()) {
+            writer.write("overwritten");
+        }
+        for (Compilation compilation : List.of(first, compiler.compile(HELLO_WORLD))) {
+            assertThat(compilation)
+                    .generatedFile(SOURCE_OUTPUT, "Blah.java")
+                    .contentsAsUtf8String()
+                    .isEqualTo(GeneratingProcessor.GENERATED_SOURCE);
+        }
+        assertThat(processorCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    void processorInstancesAreRejected() {
+        Compiler compiler = javac()
+                .withProcessors(new GeneratingProcessor())
+                .withCache(CompilationCache.inMemory(4));
+        IllegalStateException e =
+                assertThrows(IllegalStateException.class, () -> compiler.compile(HELLO_WORLD));
+        assertThat(e).hasMessageThat().contains("processor factories");
+    }
+
+    @Test
+    void processorFactoriesAreNotCalledOnHit() {
+        Compiler compiler = compiler(CompilationCache.inMemory(4));
+        compiler.compile(HELLO_WORLD);
+        compiler.compile(HELLO_WORLD);
+        assertThat(processorCount.get()).isEqualTo(1);
+        compiler.compile(BROKEN);
+        assertThat(processorCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    void changedClassPathDirectoryIsCompiled(@TempDir Path classPath) throws Exception {
+        CompilationCache cache = CompilationCache.inMemory(4);
+        Compiler compiler = javac().withClasspath(List.of(classPath.toFile())).withCache(cache);
+        compiler.compile(HELLO_WORLD);
+        compiler.compile(HELLO_WORLD);
+        assertThat(cache.size()).isEqualTo(1);
+        Files.writeString(classPath.resolve("added.txt"), "added");
+        compiler.compile(HELLO_WORLD);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void changedNestedClassPathFileIsCompiled(@TempDir Path classPath) throws Exception {
+        Path nested = Files.createDirectories(classPath.resolve("a/b")).resolve("Nested.class");
+        Files.writeString(nested, "old");
+        CompilationCache cache = CompilationCache.inMemory(4);
+        Compiler compiler = javac().withClasspath(List.of(classPath.toFile())).withCache(cache);
+        compiler.compile(HELLO_WORLD);
+        Files.writeString(nested, "recompiled");
+        compiler.compile(HELLO_WORLD);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void leastRecentlyUsedResultIsEvicted() {
+        CompilationCache cache = CompilationCache.inMemory(1);
+        Compiler compiler = javac().withCache(cache);
+        compiler.compile(HELLO_WORLD);
+        compiler.compile(BROKEN);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void failedCompilationIsCached() {
+        Compiler compiler = javac().withCache(CompilationCache.inMemory(4));
+        compiler.compile(BROKEN);
+        Compilation compilation = compiler.compile(BROKEN);
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Missing").inFile(BROKEN).onLine(2);
+    }
+
+    @Test
+    void diskCacheSurvivesNewInstance(@TempDir Path directory) {
+        compiler(CompilationCache.onDisk(4, directory)).compile(BROKEN);
+        compiler(CompilationCache.onDisk(4, directory)).compile(HELLO_WORLD);
+        Compiler compiler = compiler(CompilationCache.onDisk(4, directory));
+
+        Compilation compilation = compiler.compile(HELLO_WORLD);
+        assertThat(compilation).succeeded();
+        assertThat(compilation)
+                .generatedFile(SOURCE_OUTPUT, "Blah.java")
+                .contentsAsUtf8String()
+                .isEqualTo(GeneratingProcessor.GENERATED_SOURCE);
+
+        Compilation broken = compiler.compile(BROKEN);
+        assertThat(broken).hadErrorContaining("Missing").inFile(BROKEN).onLine(2).atColumn(22);
+    }
+}
@@ -19,11 +19,16 @@ package io.jbock.testing.compile;
 import io.jbock.common.truth.Truth;
 import org.junit.jupiter.api.Test;
 
+import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 
 import static io.jbock.common.truth.Truth.assertThat;
 import static io.jbock.testing.compile.CompilationSubject.assertThat;
 import static io.jbock.testing.compile.Compiler.javac;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
 import static javax.tools.StandardLocation.SOURCE_OUTPUT;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -89,10 +94,93 @@ public class CompilationTest {
         Truth.assertThat(compilation.generatedSourceFile("test.generated.Blah")).isPresent();
     }
 
+    @Test
+    void generatedFile_wholePathInLocation() {
+        Compiler compiler = compilerWithGenerator();
+        Compilation compilation = compiler.compile(source1, source2);
+        Truth.assertThat(compilation.generatedFile(SOURCE_OUTPUT, "generated/Blah.java")).isEmpty();
+        Truth.assertThat(compilation.generatedFile(CLASS_OUTPUT, "test/generated/Blah.java")).isEmpty();
+        // the generated source has no package declaration, so its class file is in the root
+        Truth.assertThat(compilation.generatedFile(CLASS_OUTPUT, "test/generated/Blah.class")).isEmpty();
+        Truth.assertThat(compilation.generatedFile(CLASS_OUTPUT, "Blah.class")).isPresent();
+    }
+
     private static Compiler compilerWithGenerator() {
         return javac().withProcessors(new GeneratingProcessor("test.generated"));
     }
 
+    @Test
+    void timings() {
+        Compilation compilation = compilerWithGenerator().compile(source1, source2);
+        CompilationTimings timings = compilation.timings();
+        for (CompilationTimings.Phase phase : CompilationTimings.Phase.values()) {
+            assertThat(timings.phase(phase).wallTime()).isGreaterThan(Duration.ZERO);
+            assertThat(timings.phase(phase).wallTime()).isAtMost(timings.total().wallTime());
+        }
+        // the generated sources are processed in a second round, and a final round has no input
+        assertThat(timings.annotationProcessingRounds()).hasSize(3);
+    }
+
+    @Test
+    void timings_withoutProcessors() {
+        Compilation compilation = javac().compile(source1);
+        assertThat(compilation.timings().annotationProcessingRounds()).isEmpty();
+        assertThat(compilation.timings().phase(CompilationTimings.Phase.GENERATE).wallTime())
+                .isGreaterThan(Duration.ZERO);
+    }
+
+    @Test
+    void processorProfiles() {
+        GeneratingProcessor generatingProcessor = new GeneratingProcessor("test.generated");
+        Compilation compilation =
+                javac()
+                        .withProcessorProfiling()
+                        .withProcessors(generatingProcessor, new NoOpProcessor())
+                        .compile(source1);
+        List<ProcessorProfile> profiles = compilation.processorProfiles();
+        assertThat(profiles).hasSize(2);
+        assertThat(profiles.get(0).processorName()).isEqualTo(generatingProcessor.toString());
+        // a source file, a resource and a package-info
+        assertThat(profiles.get(0).filesCreated()).isEqualTo(3);
+        assertThat(profiles.get(1).filesCreated()).isEqualTo(0);
+        for (ProcessorProfile profile : profiles) {
+            assertThat(profile.rounds()).hasSize(compilation.timings().annotationProcessingRounds().size());
+        }
+    }
+
+    @Test
+    void processorProfiles_disabled() {
+        Compilation compilation = javac().withProcessors(new NoOpProcessor()).compile(source1);
+        assertThat(compilation.processorProfiles()).isEmpty();
+    }
+
+    @Test
+    void diagnosticsAreDetachedFromTheCompiler() {
+        Compilation compilation = javac().compile(brokenSource);
+        Diagnostic<? extends JavaFileObject> error = compilation.errors().get(0);
+        assertThat(error).isInstanceOf(DiagnosticSnapshot.class);
+        assertThat(error.getSource()).isSameInstanceAs(brokenSource);
+        assertThat(error.getLineNumber()).isEqualTo(3);
+        assertThat(error.getColumnNumber()).isEqualTo(34);
+        assertThat(error.getCode()).startsWith("compiler.err");
+        assertThat(error.getMessage(Locale.getDefault())).isNotEmpty();
+        assertThat(error.toString()).contains(error.getMessage(Locale.getDefault()));
+    }
+
+    @Test
+    void diagnosticsAreIndexedByFileAndLine() {
+        JavaFileObject first = JavaFileObjects.forSourceLines(
+                "test.First", "package test;", "class First {", "  Missing a;", "  Missing b;", "}");
+        JavaFileObject second = JavaFileObjects.forSourceLines(
+                "test.Second", "package test;", "class Second {", "  Missing c;", "}");
+        Compilation compilation = javac().compile(first, second);
+        assertThat(compilation.errors()).hasSize(3);
+        assertThat(compilation.errors()).isSameInstanceAs(compilation.errors());
+        assertThat(compilation.warnings()).isEmpty();
+        assertThat(compilation).hadErrorContaining("Missing").inFile(first).onLine(4).atColumn(3);
+        assertThat(compilation).hadErrorContaining("Missing").inFile(second).onLine(3).atColumn(3);
+    }
+
     @Test
     void generatedFiles_unsuccessfulCompilationThrows() {
         Compilation compilation =
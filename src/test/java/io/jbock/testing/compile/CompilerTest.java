@@ -39,10 +39,15 @@ import java.io.UncheckedIOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -274,6 +279,31 @@ public final class CompilerTest {
         assertThat(content.get()).isEqualTo(HELLO_WORLD.getCharContent(true).toString());
     }
 
+    @Test
+    void processorDiagnosticsNameTheProcessor() {
+        Compilation compilation = javac().withProcessors(new Java8Processor()).compile(HELLO_WORLD);
+        assertThat(compilation).succeeded();
+        assertThat(compilation).hadWarningContaining("'" + Java8Processor.class.getName() + "'");
+    }
+
+    /** A processor that only supports Java 8, which makes {@code javac} report a warning about it. */
+    private static final class Java8Processor extends AbstractProcessor {
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            return false;
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Set.of("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.RELEASE_8;
+        }
+    }
+
     /**
      * Sets up a jar containing a single file 'tmp.txt', for use in annotation processor path tests.
      */
@@ -287,6 +317,112 @@ public final class CompilerTest {
         return file;
     }
 
+    @Test
+    void compileAsync() {
+        List<CompletableFuture<Compilation>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(
+                    javac().compileAsync(
+                            JavaFileObjects.forSourceLines("test.Async" + i, "package test;", "class Async" + i + " {}")));
+        }
+        for (CompletableFuture<Compilation> future : futures) {
+            assertThat(future.join()).succeededWithoutWarnings();
+        }
+    }
+
+    @Test
+    void compileAsync_executor() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            NoOpProcessor processor = new NoOpProcessor();
+            Compilation compilation =
+                    javac().withProcessors(processor).compileAsync(executor, List.of(HELLO_WORLD)).join();
+            assertThat(compilation).succeeded();
+            assertThat(processor.invoked).isTrue();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void compileAsync_failure() {
+        RuntimeException e = new RuntimeException("processor failed");
+        CompletableFuture<Compilation> future =
+                javac()
+                        .withProcessors(new ThrowingProcessor(e))
+                        .compileAsync(JavaFileObjects.forSourceLines("Test", "class Test {}"));
+        CompletionException expected = assertThrows(CompletionException.class, future::join);
+        assertThat(expected).hasCauseThat().hasCauseThat().isSameInstanceAs(e);
+    }
+
+    @Test
+    void compileAll() {
+        List<List<JavaFileObject>> sourceSets = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sourceSets.add(List.of(JavaFileObjects.forSourceLines(
+                    "test.Batch" + i, "package test;", i == 3 ? "class Batch3 { broken }" : "class Batch" + i + " {}")));
+        }
+        List<Compilation> compilations = javac().compileAll(sourceSets);
+        assertThat(compilations).hasSize(8);
+        for (int i = 0; i < 8; i++) {
+            assertThat(compilations.get(i).sourceFiles()).isEqualTo(sourceSets.get(i));
+            assertThat(compilations.get(i).status())
+                    .isEqualTo(i == 3 ? Compilation.Status.FAILURE : Compilation.Status.SUCCESS);
+        }
+    }
+
+    @Test
+    void compileAll_sharedProcessors() {
+        Compiler compiler = javac().withProcessors(new NoOpProcessor());
+        assertThrows(
+                IllegalStateException.class,
+                () -> compiler.compileAll(List.of(List.of(HELLO_WORLD), List.of(HELLO_WORLD))));
+    }
+
+    @Test
+    void processorFactories() {
+        List<NoOpProcessor> created = new ArrayList<>();
+        Compiler compiler =
+                javac().withProcessorFactories(() -> {
+                    NoOpProcessor processor = new NoOpProcessor();
+                    created.add(processor);
+                    return processor;
+                });
+        Compilation first = compiler.compile(HELLO_WORLD);
+        Compilation second = compiler.compile(HELLO_WORLD);
+        assertThat(first).succeeded();
+        assertThat(second).succeeded();
+        assertThat(created).hasSize(2);
+        assertThat(created.get(0)).isNotSameInstanceAs(created.get(1));
+        assertThat(created.get(0).invoked).isTrue();
+        assertThat(created.get(1).invoked).isTrue();
+        assertThat(first.toString()).contains(NoOpProcessor.class.getName());
+    }
+
+    @Test
+    void processorFactories_replaceProcessors() {
+        NoOpProcessor instance = new NoOpProcessor();
+        Compiler compiler =
+                javac().withProcessors(instance).withProcessorFactories(NoOpProcessor::new);
+        assertThat(compiler.processors()).isEmpty();
+        assertThat(compiler.processorFactories()).hasSize(1);
+        assertThat(compiler.compile(HELLO_WORLD)).succeeded();
+        assertThat(instance.invoked).isFalse();
+    }
+
+    @Test
+    void compileAll_processorFactories() {
+        List<List<JavaFileObject>> sourceSets = List.of(List.of(HELLO_WORLD), List.of(HELLO_WORLD));
+        // not GeneratingProcessor::new: with two constructors, that would select the Iterable overload
+        List<Compilation> compilations =
+                javac().withProcessorFactories(() -> new GeneratingProcessor())
+                        .compileAll(sourceSets);
+        for (Compilation compilation : compilations) {
+            assertThat(compilation).succeeded();
+            assertThat(compilation).generatedSourceFile(GeneratingProcessor.GENERATED_CLASS_NAME);
+        }
+    }
+
     @Test
     void releaseFlag() {
         Compilation compilation =
@@ -295,4 +431,68 @@ public final class CompilerTest {
                         .compile(JavaFileObjects.forSourceString("HelloWorld", "final class HelloWorld {}"));
         assertThat(compilation).succeeded();
     }
+
+    @Test
+    void outputHeapBudget() throws IOException {
+        Compilation onHeap = javac().withProcessors(new GeneratingProcessor()).compile(HELLO_WORLD);
+        Compilation mapped =
+                javac().withProcessors(new GeneratingProcessor()).withOutputHeapBudget(0).compile(HELLO_WORLD);
+        assertThat(mapped).succeeded();
+        assertThat(mapped.generatedFiles()).hasSize(onHeap.generatedFiles().size());
+        for (int i = 0; i < onHeap.generatedFiles().size(); i++) {
+            JavaFileObject expected = onHeap.generatedFiles().get(i);
+            JavaFileObject actual = mapped.generatedFiles().get(i);
+            assertThat(actual.toUri()).isEqualTo(expected.toUri());
+            assertThat(JavaFileObjects.asBytes(actual)).isEqualTo(JavaFileObjects.asBytes(expected));
+            assertThat(actual.getCharContent(true).toString())
+                    .isEqualTo(expected.getCharContent(true).toString());
+        }
+    }
+
+    @Test
+    void outputHeapBudget_negative() {
+        assertThrows(IllegalArgumentException.class, () -> javac().withOutputHeapBudget(-1));
+    }
+
+    @Test
+    void parse() {
+        JavaFileObject unresolved =
+                JavaFileObjects.forSourceLines(
+                        "test.Foo",
+                        "package test;",
+                        "",
+                        "final class Foo {",
+                        "  Missing missing;",
+                        "}",
+                        "",
+                        "interface Bar {}");
+        ParseResult result = javac()
+                .withProcessors(new ThrowingProcessor(new IllegalStateException("processors do not run")))
+                .parse(unresolved);
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.compilationUnits()).hasSize(1);
+        assertThat(result.topLevelTypes()).containsExactly("test.Foo", "test.Bar");
+    }
+
+    @Test
+    void parse_syntaxError() {
+        JavaFileObject broken =
+                JavaFileObjects.forSourceLines("test.Broken", "package test;", "class Broken { void f( }");
+        ParseResult result = javac().parse(HELLO_WORLD, broken);
+        assertThat(result.succeeded()).isFalse();
+        assertThat(result.compilationUnits()).hasSize(2);
+        assertThat(result.errors()).hasSize(1);
+        assertThat(result.errors().get(0).getSource()).isSameInstanceAs(broken);
+        assertThat(result.errors().get(0).getLineNumber()).isEqualTo(2);
+    }
+
+    @Test
+    void parse_doesNotUsePooledFileManagers() {
+        // the result keeps the task and its file manager reachable
+        int idle = FileManagerPool.shared().idleCount();
+        long hits = FileManagerPool.shared().hits();
+        assertThat(javac().parse(HELLO_WORLD).succeeded()).isTrue();
+        assertThat(FileManagerPool.shared().idleCount()).isEqualTo(idle);
+        assertThat(FileManagerPool.shared().hits()).isEqualTo(hits);
+    }
 }
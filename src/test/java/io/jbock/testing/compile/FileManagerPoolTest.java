@@ -0,0 +1,187 @@
+package io.jbock.testing.compile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+import static io.jbock.common.truth.Truth.assertThat;
+import static io.jbock.testing.compile.CompilationSubject.assertThat;
+import static io.jbock.testing.compile.Compiler.javac;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.tools.StandardLocation.CLASS_PATH;
+import static javax.tools.StandardLocation.SOURCE_PATH;
+
+/** Tests for {@link FileManagerPool}. */
+class FileManagerPoolTest {
+
+    private static final JavaCompiler JAVAC = ToolProvider.getSystemJavaCompiler();
+
+    private static FileManagerPool.Key key(String... options) {
+        return FileManagerPool.Key.create(
+                JAVAC, List.of(options), Optional.empty(), Optional.empty(), UTF_8, Locale.ROOT);
+    }
+
+    @Test
+    void recycledFileManagerIsReused() {
+        FileManagerPool pool = new FileManagerPool(4, 4);
+        FileManagerPool.Lease first = pool.acquire(JAVAC, key(), new DiagnosticCollector<>());
+        StandardJavaFileManager fileManager = first.fileManager();
+        first.recycle();
+        assertThat(pool.idleCount()).isEqualTo(1);
+        try (FileManagerPool.Lease second =
+                     pool.acquire(ToolProvider.getSystemJavaCompiler(), key(), new DiagnosticCollector<>())) {
+            assertThat(second.fileManager()).isSameInstanceAs(fileManager);
+            assertThat(pool.idleCount()).isEqualTo(0);
+        }
+        assertThat(pool.idleCount()).isEqualTo(0);
+    }
+
+    @Test
+    void differentOptionsDoNotShareFileManagers() {
+        FileManagerPool pool = new FileManagerPool(4, 4);
+        FileManagerPool.Lease first = pool.acquire(JAVAC, key(), new DiagnosticCollector<>());
+        StandardJavaFileManager fileManager = first.fileManager();
+        first.recycle();
+        try (FileManagerPool.Lease second =
+                     pool.acquire(JAVAC, key("--release", "11"), new DiagnosticCollector<>())) {
+            assertThat(second.fileManager()).isNotSameInstanceAs(fileManager);
+        }
+    }
+
+    @Test
+    void closeIdleKeepsPooling() {
+        FileManagerPool pool = new FileManagerPool(4, 4);
+        pool.acquire(JAVAC, key(), new DiagnosticCollector<>()).recycle();
+        pool.closeIdle();
+        assertThat(pool.idleCount()).isEqualTo(0);
+        pool.acquire(JAVAC, key(), new DiagnosticCollector<>()).recycle();
+        assertThat(pool.idleCount()).isEqualTo(1);
+        assertThat(pool.hits()).isEqualTo(0);
+    }
+
+    @Test
+    void leastRecentlyUsedConfigurationIsClosed() {
+        FileManagerPool pool = new FileManagerPool(1, 4);
+        pool.acquire(JAVAC, key("-Aa"), new DiagnosticCollector<>()).recycle();
+        pool.acquire(JAVAC, key("-Ab"), new DiagnosticCollector<>()).recycle();
+        assertThat(pool.idleCount()).isEqualTo(1);
+        pool.close();
+        assertThat(pool.idleCount()).isEqualTo(0);
+        pool.acquire(JAVAC, key("-Aa"), new DiagnosticCollector<>()).recycle();
+        assertThat(pool.idleCount()).isEqualTo(0);
+    }
+
+    @Test
+    void recycleRestoresClassPath(@TempDir Path directory) throws IOException {
+        FileManagerPool pool = new FileManagerPool(4, 4);
+        FileManagerPool.Lease first = pool.acquire(JAVAC, key(), new DiagnosticCollector<>());
+        StandardJavaFileManager fileManager = first.fileManager();
+        List<File> classPath = files(fileManager.getLocation(CLASS_PATH));
+        fileManager.setLocation(CLASS_PATH, List.of(directory.toFile()));
+        first.recycle();
+        try (FileManagerPool.Lease second = pool.acquire(JAVAC, key(), new DiagnosticCollector<>())) {
+            assertThat(second.fileManager()).isSameInstanceAs(fileManager);
+            assertThat(files(fileManager.getLocation(CLASS_PATH))).isEqualTo(classPath);
+        }
+    }
+
+    @Test
+    void fileManagerWithNewSourcePathIsClosed(@TempDir Path directory) throws IOException {
+        FileManagerPool pool = new FileManagerPool(4, 4);
+        FileManagerPool.Lease first = pool.acquire(JAVAC, key(), new DiagnosticCollector<>());
+        StandardJavaFileManager fileManager = first.fileManager();
+        assertThat(fileManager.getLocation(SOURCE_PATH)).isNull();
+        fileManager.setLocation(SOURCE_PATH, List.of(directory.toFile()));
+        first.recycle();
+        assertThat(pool.idleCount()).isEqualTo(0);
+        try (FileManagerPool.Lease second = pool.acquire(JAVAC, key(), new DiagnosticCollector<>())) {
+            assertThat(second.fileManager()).isNotSameInstanceAs(fileManager);
+            assertThat(second.fileManager().getLocation(SOURCE_PATH)).isNull();
+        }
+    }
+
+    @Test
+    void interleavedClassPathsOnOneFileManager(@TempDir Path directory) throws IOException {
+        Path a = library(directory.resolve("a"), "a");
+        Path b = library(directory.resolve("b"), "b");
+        FileManagerPool pool = new FileManagerPool(1, 1);
+        for (int i = 0; i < 2; i++) {
+            assertThat(compileCalling(pool, a, "a")).isTrue();
+            assertThat(compileCalling(pool, b, "a")).isFalse();
+            assertThat(compileCalling(pool, b, "b")).isTrue();
+            assertThat(compileCalling(pool, null, "b")).isFalse();
+        }
+        assertThat(pool.hits()).isEqualTo(7);
+    }
+
+    /** Writes a class {@code lib.X} with a static method {@code method} to {@code directory}. */
+    private static Path library(Path directory, String method) throws IOException {
+        Files.createDirectories(directory.resolve("lib"));
+        Files.writeString(
+                directory.resolve("lib/X.java"),
+                "package lib;\n\npublic class X {\n    public static void " + method + "() {}\n}\n");
+        return directory;
+    }
+
+    /**
+     * Compiles a call to {@code lib.X.method()} with a pooled file manager, after pointing its class
+     * path to {@code classPath} unless that is {@code null}.
+     */
+    private static boolean compileCalling(FileManagerPool pool, Path classPath, String method)
+            throws IOException {
+        JavaFileObject source = JavaFileObjects.forSourceLines(
+                "test.A", "package test;", "class A { { lib.X." + method + "(); } }");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        FileManagerPool.Lease lease = pool.acquire(JAVAC, key(), diagnostics);
+        if (classPath != null) {
+            lease.fileManager().setLocation(CLASS_PATH, List.of(classPath.toFile()));
+        }
+        boolean success = JAVAC.getTask(
+                        null,
+                        new InMemoryJavaFileManager(lease.fileManager()),
+                        diagnostics,
+                        List.of(),
+                        null,
+                        List.of(source))
+                .call();
+        lease.recycle();
+        return success;
+    }
+
+    private static List<File> files(Iterable<? extends File> path) {
+        List<File> result = new ArrayList<>();
+        path.forEach(result::add);
+        return result;
+    }
+
+    @Test
+    void compilationsShareClassPathState() {
+        JavaFileObject source =
+                JavaFileObjects.forSourceLines("test.A", "package test;", "class A { java.util.List<String> l; }");
+        assertThat(javac().compile(source)).succeeded();
+        long hits = FileManagerPool.shared().hits();
+        for (int i = 0; i < 2; i++) {
+            assertThat(javac().compile(source)).succeeded();
+        }
+        assertThat(FileManagerPool.shared().hits()).isAtLeast(hits + 2);
+        Compilation compilation =
+                javac().withOptions("--release", "8").compile(
+                        JavaFileObjects.forSourceLines("B", "class B { void f() { var x = 1; } }"));
+        assertThat(compilation).failed();
+        assertThat(javac().compile(JavaFileObjects.forSourceLines("B", "class B { void f() { var x = 1; } }")))
+                .succeeded();
+    }
+}
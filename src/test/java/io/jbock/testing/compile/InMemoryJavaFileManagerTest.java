@@ -0,0 +1,251 @@
+package io.jbock.testing.compile;
+
+import org.junit.jupiter.api.Test;
+
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static io.jbock.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.tools.JavaFileObject.Kind.CLASS;
+import static javax.tools.JavaFileObject.Kind.OTHER;
+import static javax.tools.JavaFileObject.Kind.SOURCE;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
+import static javax.tools.StandardLocation.SOURCE_OUTPUT;
+import static javax.tools.StandardLocation.SOURCE_PATH;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Tests for {@link InMemoryJavaFileManager}. */
+class InMemoryJavaFileManagerTest {
+
+    private final InMemoryJavaFileManager fileManager =
+            new InMemoryJavaFileManager(
+                    ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null));
+
+    private static JavaFileObject file(String uri) {
+        return new SimpleJavaFileObject(URI.create(uri), JavaFileObjects.deduceKind(URI.create(uri))) {
+        };
+    }
+
+    @Test
+    void findsInputByClassName() throws Exception {
+        JavaFileObject foo = file("mem:///src/test/Foo.java");
+        fileManager.addSourceFiles(List.of(foo, file("mem:///src/test/Bar.java")));
+        assertThat(fileManager.getJavaFileForInput(SOURCE_PATH, "test.Foo", SOURCE)).isSameInstanceAs(foo);
+        assertThat(fileManager.getFileForInput(SOURCE_PATH, "test", "Foo.java")).isSameInstanceAs(foo);
+    }
+
+    @Test
+    void matchesWholeSegments() throws Exception {
+        JavaFileObject foo = file("mem:///xtest/Foo.java");
+        fileManager.addSourceFiles(List.of(file("mem:///test/BarFoo.java"), foo));
+        assertThat(fileManager.getFileForInput(SOURCE_PATH, "test", "Foo.java")).isNull();
+        assertThat(fileManager.getFileForInput(SOURCE_PATH, "", "Foo.java")).isSameInstanceAs(foo);
+    }
+
+    @Test
+    void matchesKind() throws Exception {
+        fileManager.addSourceFiles(List.of(file("mem:///test/Foo.java")));
+        assertThat(fileManager.getJavaFileForInput(SOURCE_PATH, "test.Foo", CLASS)).isNull();
+    }
+
+    @Test
+    void prefersShortestPath() throws Exception {
+        JavaFileObject shortPath = file("mem:///Foo.java");
+        fileManager.addSourceFiles(List.of(file("mem:///a/Foo.java"), shortPath, file("mem:///b/Foo.java")));
+        assertThat(fileManager.getJavaFileForInput(SOURCE_PATH, "Foo", SOURCE)).isSameInstanceAs(shortPath);
+    }
+
+    @Test
+    void ambiguousInputIsRejected() throws Exception {
+        JavaFileObject a = file("mem:///a/test/Foo.java");
+        fileManager.addSourceFiles(List.of(file("mem:///b/test/Foo.java"), a));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> fileManager.getJavaFileForInput(SOURCE_PATH, "test.Foo", SOURCE));
+        assertThat(e).hasMessageThat().isEqualTo(
+                "input files [mem:///a/test/Foo.java, mem:///b/test/Foo.java] "
+                        + "all end with test/Foo.java, so the compiler cannot tell them apart");
+        assertThat(fileManager.getJavaFileForInput(SOURCE_PATH, "a.test.Foo", SOURCE)).isSameInstanceAs(a);
+    }
+
+    @Test
+    void inputsWithSamePathAreRejected() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> fileManager.addSourceFiles(List.of(file("mem:///test/Foo.java"), file("test/Foo.java"))));
+        assertThat(e).hasMessageThat().isEqualTo(
+                "input files mem:///test/Foo.java and test/Foo.java have the same path, "
+                        + "so the compiler cannot tell them apart");
+    }
+
+    @Test
+    void addingSameFileAgainReplacesIt() throws Exception {
+        JavaFileObject second = file("mem:///test/Foo.java");
+        fileManager.addSourceFiles(List.of(file("mem:///test/Foo.java"), second));
+        assertThat(fileManager.getJavaFileForInput(SOURCE_PATH, "test.Foo", SOURCE)).isSameInstanceAs(second);
+    }
+
+    @Test
+    void outputsAreFoundByLocation() throws Exception {
+        JavaFileObject source = fileManager.getJavaFileForOutput(SOURCE_OUTPUT, "test.Foo", SOURCE, null);
+        JavaFileObject classFile = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "test.Foo", CLASS, null);
+        FileObject resource = fileManager.getFileForOutput(CLASS_OUTPUT, "test", "foo/bar.txt", null);
+        assertThat(source.toUri().toString()).isEqualTo("mem:///SOURCE_OUTPUT/test/Foo.java");
+        assertThat(resource.toUri().toString()).isEqualTo("mem:///CLASS_OUTPUT/test/foo/bar.txt");
+        assertThat(fileManager.getJavaFileForInput(SOURCE_OUTPUT, "test.Foo", SOURCE)).isSameInstanceAs(source);
+        assertThat(fileManager.getJavaFileForInput(CLASS_OUTPUT, "test.Foo", CLASS)).isSameInstanceAs(classFile);
+        assertThat(fileManager.getJavaFileForInput(CLASS_OUTPUT, "test.Foo", SOURCE)).isNull();
+        assertThat(fileManager.getFileForInput(CLASS_OUTPUT, "test.foo", "bar.txt")).isSameInstanceAs(resource);
+        assertThat(fileManager.getJavaFileForOutput(SOURCE_OUTPUT, "test.Foo", SOURCE, null)).isSameInstanceAs(source);
+        assertThat(fileManager.getOutputFiles()).containsExactly(source, classFile, resource).inOrder();
+        assertThat(fileManager.getGeneratedSources()).containsExactly(source);
+    }
+
+    @Test
+    void listsOutputs() throws Exception {
+        JavaFileObject foo = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "test.Foo", CLASS, null);
+        JavaFileObject bar = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "test.sub.Bar", CLASS, null);
+        FileObject resource = fileManager.getFileForOutput(CLASS_OUTPUT, "test", "foo.txt", null);
+        fileManager.getJavaFileForOutput(CLASS_OUTPUT, "testing.Baz", CLASS, null);
+        fileManager.getJavaFileForOutput(SOURCE_OUTPUT, "test.Foo", SOURCE, null);
+        assertThat(fileManager.list(CLASS_OUTPUT, "test", Set.of(CLASS), false)).containsExactly(foo);
+        assertThat(fileManager.list(CLASS_OUTPUT, "test", Set.of(CLASS, OTHER), true))
+                .containsExactly(foo, bar, resource);
+        assertThat(fileManager.list(CLASS_OUTPUT, "test", Set.of(SOURCE), true)).isEmpty();
+    }
+
+    @Test
+    void infersBinaryNames() {
+        JavaFileObject output = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "test.Foo$Bar", CLASS, null);
+        JavaFileObject input = JavaFileObjects.forSourceString("test.Baz", "package test; class Baz {}");
+        fileManager.addSourceFiles(List.of(input));
+        assertThat(fileManager.inferBinaryName(CLASS_OUTPUT, output)).isEqualTo("test.Foo$Bar");
+        assertThat(fileManager.inferBinaryName(SOURCE_PATH, input)).isEqualTo("test.Baz");
+    }
+
+    @Test
+    void doesNotInferBinaryNamesFromResourcePaths() {
+        JavaFileObject resource = JavaFileObjects.forResource("test/HelloWorld.java");
+        fileManager.addSourceFiles(List.of(resource));
+        // the file: URI of the resource has an absolute path, so the standard file manager decides
+        assertThat(fileManager.inferBinaryName(SOURCE_PATH, resource)).isNull();
+    }
+
+    @Test
+    void textOutputIsStoredOnceAndEncodedAsUtf8() throws Exception {
+        JavaFileObject file = fileManager.getJavaFileForOutput(SOURCE_OUTPUT, "test.Foo", SOURCE, null);
+        try (Writer writer = file.openWriter()) {
+            writer.write("class Foo { String s = \"\u00e4\u20ac\"; }");
+        }
+        CharSequence text = file.getCharContent(true);
+        assertThat(file.getCharContent(true)).isSameInstanceAs(text);
+        assertThat(JavaFileObjects.asBytes(file))
+                .isEqualTo("class Foo { String s = \"\u00e4\u20ac\"; }".getBytes(UTF_8));
+    }
+
+    @Test
+    void binaryOutputIsDecodedAsUtf8() throws Exception {
+        FileObject file = fileManager.getFileForOutput(CLASS_OUTPUT, "", "foo.txt", null);
+        try (OutputStream outputStream = file.openOutputStream()) {
+            outputStream.write("\u00e4".getBytes(UTF_8));
+        }
+        assertThat(file.getCharContent(true).toString()).isEqualTo("\u00e4");
+    }
+
+    @Test
+    void decodedTextCountsAgainstHeapBudget() throws Exception {
+        InMemoryJavaFileManager budgeted =
+                new InMemoryJavaFileManager(
+                        ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null), 6);
+        FileObject fits = budgeted.getFileForOutput(CLASS_OUTPUT, "", "fits.txt", null);
+        try (OutputStream outputStream = fits.openOutputStream()) {
+            outputStream.write("abc".getBytes(UTF_8));
+        }
+        FileObject full = budgeted.getFileForOutput(CLASS_OUTPUT, "", "full.txt", null);
+        try (OutputStream outputStream = full.openOutputStream()) {
+            outputStream.write("xyz".getBytes(UTF_8));
+        }
+        // the bytes of both files use up the budget, so their text is not kept
+        CharSequence text = full.getCharContent(true);
+        assertThat(full.getCharContent(true)).isNotSameInstanceAs(text);
+        assertThat(full.getCharContent(true).toString()).isEqualTo("xyz");
+        fits.delete();
+        text = full.getCharContent(true);
+        assertThat(full.getCharContent(true)).isSameInstanceAs(text);
+    }
+
+    @Test
+    void mappedOutputIsReadable() throws Exception {
+        InMemoryJavaFileManager budgeted =
+                new InMemoryJavaFileManager(
+                        ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null), 0);
+        JavaFileObject file = budgeted.getJavaFileForOutput(SOURCE_OUTPUT, "test.Foo", SOURCE, null);
+        try (Writer writer = file.openWriter()) {
+            writer.write("class Foo {}");
+        }
+        assertThat(file.getCharContent(true).toString()).isEqualTo("class Foo {}");
+        assertThat(JavaFileObjects.asBytes(file)).isEqualTo("class Foo {}".getBytes(UTF_8));
+    }
+
+    @Test
+    void concurrentOutputs() throws Exception {
+        int threads = 8;
+        int filesPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<JavaFileObject>>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String packageName = "thread" + t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                List<JavaFileObject> created = new ArrayList<>();
+                for (int i = 0; i < filesPerThread; i++) {
+                    JavaFileObject file =
+                            fileManager.getJavaFileForOutput(CLASS_OUTPUT, packageName + ".C" + i, CLASS, null);
+                    try (OutputStream outputStream = file.openOutputStream()) {
+                        outputStream.write(file.toUri().toString().getBytes(UTF_8));
+                    }
+                    created.add(file);
+                    created.add(fileManager.getJavaFileForOutput(SOURCE_OUTPUT, "shared.Shared", SOURCE, null));
+                }
+                return created;
+            }));
+        }
+        start.countDown();
+        List<List<JavaFileObject>> results = new ArrayList<>();
+        for (Future<List<JavaFileObject>> future : futures) {
+            results.add(future.get(1, TimeUnit.MINUTES));
+        }
+        executor.shutdown();
+
+        List<JavaFileObject> outputs = fileManager.getOutputFiles();
+        assertThat(outputs).hasSize(threads * filesPerThread + 1);
+        assertThat(Set.copyOf(outputs)).hasSize(outputs.size());
+        JavaFileObject shared = fileManager.getJavaFileForInput(SOURCE_OUTPUT, "shared.Shared", SOURCE);
+        for (List<JavaFileObject> created : results) {
+            List<JavaFileObject> own = new ArrayList<>();
+            for (JavaFileObject file : created) {
+                if (file.getKind() == SOURCE) {
+                    assertThat(file).isSameInstanceAs(shared);
+                } else {
+                    own.add(file);
+                    assertThat(new String(JavaFileObjects.asBytes(file), UTF_8)).isEqualTo(file.toUri().toString());
+                }
+            }
+            // each thread's files are listed in the order that it created them
+            assertThat(outputs).containsAtLeastElementsIn(own).inOrder();
+        }
+    }
+}
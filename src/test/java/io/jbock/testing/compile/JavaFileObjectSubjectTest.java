@@ -23,6 +23,7 @@ import org.junit.jupiter.api.Test;
 import javax.tools.JavaFileObject;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.regex.PatternSyntaxException;
 
 import static io.jbock.common.truth.ExpectFailure.assertThat;
 import static io.jbock.common.truth.Truth.assertAbout;
@@ -138,6 +139,61 @@ final class JavaFileObjectSubjectTest {
                     "  }",
                     "}");
 
+    @Test
+    @SuppressWarnings("removal")
+    void hasSourceEquivalentTo() {
+        assertThat(CLASS_WITH_FIELD).hasSourceEquivalentTo(
+                JavaFileObjects.forSourceLines(
+                        "test.TestClass",
+                        "package test;",
+                        "/** A class. */",
+                        "public class TestClass { Object field; }"));
+    }
+
+    @Test
+    @SuppressWarnings("removal")
+    void hasSourceEquivalentTo_failOnDifference() {
+        AssertionError expected = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaFileObjects())
+                        .that(UNKNOWN_TYPES)
+                        .hasSourceEquivalentTo(
+                                JavaFileObjects.forSourceLines(
+                                        "test.TestClass",
+                                        "package test;",
+                                        "public class TestClass {",
+                                        "  Bar badMethod(Baz baz) { return baz.who(); }",
+                                        "}")));
+        assertThat(expected).factValue("in").isEqualTo("TestClass.badMethod");
+        assertThat(expected).factValue("difference").contains("to be <who> but was <what>");
+    }
+
+    @Test
+    @SuppressWarnings("removal")
+    void hasSourceEquivalentTo_failOnExtraMember() {
+        AssertionError expected = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaFileObjects()).that(CLASS_WITH_FIELD).hasSourceEquivalentTo(CLASS));
+        assertThat(expected).factValue("in").isEqualTo("TestClass");
+        assertThat(expected).factValue("difference").startsWith("Expected 0 members");
+    }
+
+    @Test
+    @SuppressWarnings("removal")
+    void containsElementsIn() {
+        assertThat(CLASS_WITH_FIELD).containsElementsIn(CLASS);
+    }
+
+    @Test
+    @SuppressWarnings("removal")
+    void containsElementsIn_failOnMissingMember() {
+        AssertionError expected = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaFileObjects()).that(CLASS).containsElementsIn(CLASS_WITH_FIELD));
+        assertThat(expected).factValue("in").isEqualTo("TestClass");
+        assertThat(expected).factValue("difference").contains("`Object field;`");
+    }
+
     @Test
     void containsLines_completeMatch() {
         assertThat(SAMPLE_ACTUAL_FILE_FOR_MATCHING).containsLines(SAMPLE_ACTUAL_FILE_FOR_MATCHING);
@@ -214,6 +270,107 @@ final class JavaFileObjectSubjectTest {
                 "    \"// extra line\" // no match")));
     }
 
+    @Test
+    void containsLines_fail_diff() {
+        AssertionError expected = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaFileObjects())
+                        .that(UNKNOWN_TYPES)
+                        .containsLines(
+                                "public class TestClass {",
+                                "  Bar badMethod(Baz baz) { return baz.who(); }",
+                                "}"));
+        assertThat(expected).factValue("diff").isEqualTo(String.join("\n", Arrays.asList(
+                "@@ -1,3 +1,5 @@",
+                "+package test;",
+                "+",
+                " public class TestClass {",
+                "-  Bar badMethod(Baz baz) { return baz.who(); }",
+                "+  Bar badMethod(Baz baz) { return baz.what(); }",
+                " }")));
+    }
+
+    @Test
+    void containsLinesIgnoringFormatting_match() {
+        assertThat(UNKNOWN_TYPES).containsLinesIgnoringFormatting(
+                "public class TestClass{ // test",
+                "",
+                "  Bar   badMethod( Baz baz ) { /* comment */ return baz.what();  }",
+                "}");
+    }
+
+    @Test
+    void containsLinesIgnoringFormatting_fail() {
+        AssertionError expected = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaFileObjects())
+                        .that(UNKNOWN_TYPES)
+                        .containsLinesIgnoringFormatting(
+                                "public  class  TestClass {",
+                                "  Bar badMethod(Baz baz) { return baz.who(); }"));
+        assertThat(expected).factValue("unmatched")
+                .isEqualTo("1: \"Bar badMethod(Baz baz){return baz.who();}\"");
+    }
+
+    @Test
+    void containsLinesMatching_match() {
+        assertThat(UNKNOWN_TYPES).containsLinesMatching(
+                "\\Qpublic class TestClass {\\E",
+                "  Bar \\w+\\(Baz baz\\) .*",
+                "}");
+    }
+
+    @Test
+    void containsLinesMatching_fail() {
+        AssertionError expected = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaFileObjects())
+                        .that(UNKNOWN_TYPES)
+                        .containsLinesMatching(
+                                "public class .*",
+                                "package .*"));
+        assertThat(expected).factValue("unmatched").isEqualTo("1: \"package .*\"");
+        assertThat(expected).factValue("subsequence").isEqualTo(String.join("\n", Arrays.asList(
+                "\"public class .*\", // 2",
+                "\"package .*\" // no match")));
+
+        assertThat(expected).factValue("diff").contains("-package .*");
+    }
+
+    @Test
+    void containsLinesMatching_invalidExpressionFailsBeforeScanning() {
+        Assertions.assertThrows(
+                PatternSyntaxException.class,
+                () -> assertThat(UNKNOWN_TYPES).containsLinesMatching("no such line", "("));
+    }
+
+    @Test
+    void containsLinesMatching_sameGroupNameOnSeveralLines() {
+        assertThat(UNKNOWN_TYPES).containsLinesMatching(
+                "(?<keyword>package) test;",
+                "(?<keyword>public) class .*");
+    }
+
+    @Test
+    void containsLinesMatching_backReferenceStaysOnItsLine() {
+        AssertionError expected = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaFileObjects())
+                        .that(JavaFileObjects.forSourceString("test.Lines", "a\nba"))
+                        .containsLinesMatching("(a)", "(b)\\1"));
+        assertThat(expected).factValue("unmatched").isEqualTo("1: \"(b)\\1\"");
+    }
+
+    @Test
+    void containsLinesMatching_doesNotMatchAcrossLines() {
+        AssertionError expected = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaFileObjects())
+                        .that(JavaFileObjects.forSourceString("test.Lines", "foo\nbar"))
+                        .containsLinesMatching("foo\\s+bar"));
+        assertThat(expected).factValue("unmatched").isEqualTo("0: \"foo\\s+bar\"");
+    }
+
     @Test
     void containsLinesIn_match() {
         assertThat(SAMPLE_ACTUAL_FILE_FOR_MATCHING).containsLines(
@@ -699,6 +699,123 @@ class JavaSourcesSubjectFactoryTest {
         assertThat(expected.getMessage()).contains(" have contents");
     }
 
+    @Test
+    void generatesFiles() {
+        assertAbout(javaSource())
+                .that(HELLO_WORLD_RESOURCE)
+                .processedWith(new GeneratingProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesFiles(
+                        JavaFileObjects.forSourceString(
+                                GeneratingProcessor.GENERATED_CLASS_NAME, GeneratingProcessor.GENERATED_SOURCE));
+    }
+
+    @Test
+    void generatesFiles_failOnFileContents() {
+        JavaFileObject expected =
+                JavaFileObjects.forSourceString(
+                        GeneratingProcessor.GENERATED_CLASS_NAME, GeneratingProcessor.GENERATED_SOURCE + " ");
+        AssertionError failure = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaSource())
+                        .that(HELLO_WORLD_RESOURCE)
+                        .processedWith(new GeneratingProcessor())
+                        .compilesWithoutError()
+                        .and()
+                        .generatesFiles(expected));
+        assertThat(failure.getMessage())
+                .contains("Did not find a generated file corresponding to " + expected.getName());
+    }
+
+    @Test
+    @SuppressWarnings("removal")
+    void generatesSources() {
+        assertAbout(javaSource())
+                .that(HELLO_WORLD_RESOURCE)
+                .processedWith(new GeneratingProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(
+                        JavaFileObjects.forSourceLines(
+                                GeneratingProcessor.GENERATED_CLASS_NAME,
+                                "final class Blah {",
+                                "  String blah =",
+                                "      \"blah\"; // formatted differently",
+                                "}"));
+    }
+
+    @Test
+    @SuppressWarnings("removal")
+    void generatesSources_failOnDifference() {
+        JavaFileObject expected =
+                JavaFileObjects.forSourceLines(
+                        GeneratingProcessor.GENERATED_CLASS_NAME,
+                        "final class Blah {",
+                        "  String blah = \"blub\";",
+                        "}");
+        AssertionError failure = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaSource())
+                        .that(HELLO_WORLD_RESOURCE)
+                        .processedWith(new GeneratingProcessor())
+                        .compilesWithoutError()
+                        .and()
+                        .generatesSources(expected));
+        assertThat(failure).factValue("in").isEqualTo("Blah.blah");
+    }
+
+    @Test
+    @SuppressWarnings("removal")
+    void generatesSources_failOnMissingFile() {
+        JavaFileObject expected = JavaFileObjects.forSourceLines("test.Bogus", "package test;", "class Bogus {}");
+        AssertionError failure = Assertions.assertThrows(
+                AssertionError.class,
+                () -> assertAbout(javaSource())
+                        .that(HELLO_WORLD_RESOURCE)
+                        .processedWith(new GeneratingProcessor())
+                        .compilesWithoutError()
+                        .and()
+                        .generatesSources(expected));
+        assertThat(failure.getMessage())
+                .contains("Did not find a generated source file corresponding to " + expected.getName());
+    }
+
+    @Test
+    void compilesOncePerClause() {
+        // AbstractProcessor.init fails if it is called twice
+        CompileTester tester = assertAbout(javaSource())
+                .that(HELLO_WORLD_RESOURCE)
+                .processedWith(new GeneratingProcessor());
+        tester.compilesWithoutError();
+        tester.compilesWithoutWarnings();
+        tester.compilesWithoutError()
+                .and()
+                .generatesFileNamed(CLASS_OUTPUT, "io.jbock.testing.compile", "Foo")
+                .withContents("Bar".getBytes(UTF_8));
+    }
+
+    @Test
+    void changedOptionsWithProcessorsThrows() {
+        ProcessedCompileTesterFactory factory = assertAbout(javaSource()).that(HELLO_WORLD_RESOURCE);
+        CompileTester tester = factory.processedWith(new NoOpProcessor());
+        tester.compilesWithoutError();
+        factory.withCompilerOptions("-Xlint:none");
+        IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, tester::compilesWithoutError);
+        assertThat(e).hasMessageThat().contains("processors cannot run again");
+    }
+
+    @Test
+    void compilationThatThrowsIsNotReused() {
+        ProcessedCompileTesterFactory factory = assertAbout(javaSource()).that(HELLO_WORLD_RESOURCE);
+        CompileTester tester = factory.processedWith(List.of());
+        tester.compilesWithoutError();
+        factory.withCompilerOptions("-Xno-such-option");
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertThrows(IllegalArgumentException.class, tester::compilesWithoutError);
+        }
+    }
+
     @Test
     void withStringContents() {
         assertAbout(javaSource())
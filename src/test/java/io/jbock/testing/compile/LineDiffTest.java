@@ -0,0 +1,51 @@
+package io.jbock.testing.compile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.jbock.common.truth.Truth.assertThat;
+
+/** Tests for {@link LineDiff}. */
+class LineDiffTest {
+
+    @Test
+    void minimalDiff() {
+        LineDiff diff = LineDiff.diff(
+                List.of("a", "b", "c", "a", "b", "b", "a"), LineIndex.of("c\nb\na\nb\na\nc"));
+        // the longest common subsequence has length 4
+        assertThat(diff.deletions()).isEqualTo(3);
+        assertThat(diff.hunks(0, 100)).isEqualTo(String.join("\n",
+                "@@ -1,1 +1,0 @@",
+                "-a",
+                "@@ -3,1 +3,0 @@",
+                "-c",
+                "@@ -6,1 +5,0 @@",
+                "-b"));
+    }
+
+    @Test
+    void showsOnlyHunksWithMissingLines() {
+        StringBuilder actual = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            actual.append("line ").append(i).append('\n');
+            if (i % 10 == 0) {
+                expected.add("line " + i);
+            }
+        }
+        expected.add(500, "missing");
+        LineDiff diff = LineDiff.diff(expected, LineIndex.of(actual));
+        assertThat(diff.deletions()).isEqualTo(1);
+        assertThat(diff.hunks(1, 100)).isEqualTo(String.join("\n",
+                "@@ -500,2 +4991,2 @@",
+                " line 4990",
+                "-missing",
+                "+line 4991"));
+        assertThat(diff.hunks(1, 2)).isEqualTo(String.join("\n",
+                "@@ -500,2 +4991,2 @@",
+                " line 4990",
+                "... (diff truncated)"));
+    }
+}
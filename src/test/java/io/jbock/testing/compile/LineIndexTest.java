@@ -0,0 +1,48 @@
+package io.jbock.testing.compile;
+
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaFileObject;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.jbock.common.truth.Truth.assertThat;
+
+/** Tests for {@link LineIndex}. */
+class LineIndexTest {
+
+    @Test
+    void splitsLikeLineBreakPattern() {
+        for (String text : List.of("", "a", "a\n", "\na", "a\r\nb\rc\n\nd", "a\n\r\nb", "a\r\r\nb\u2028c\u0085")) {
+            List<String> expected = Arrays.asList(text.split("\\R", -1));
+            assertThat(LineIndex.of(text).lines()).containsExactlyElementsIn(expected).inOrder();
+            assertThat(LineIndex.of(new StringBuilder(text)).lines()).containsExactlyElementsIn(expected).inOrder();
+        }
+    }
+
+    @Test
+    void comparesLinesInPlace() {
+        LineIndex index = LineIndex.of(new StringBuilder("foo\r\nbar"));
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.lineEquals(0, "foo")).isTrue();
+        assertThat(index.lineEquals(0, "fo")).isFalse();
+        assertThat(index.lineEquals(1, "baz")).isFalse();
+        assertThat(index.lineEquals(1, null)).isFalse();
+    }
+
+    @Test
+    void keepsGivenLines() {
+        List<String> lines = List.of("String s = \"a\u2028b\u0085c\fd\";", "", "e");
+        LineIndex index = LineIndex.ofLines(lines);
+        assertThat(index.lines()).containsExactlyElementsIn(lines).inOrder();
+        assertThat(index.hashes()[0]).isEqualTo(lines.get(0).hashCode());
+        assertThat(LineIndex.ofLines(List.of()).size()).isEqualTo(0);
+    }
+
+    @Test
+    void isCachedPerFile() throws Exception {
+        JavaFileObject file = JavaFileObjects.forSourceLines("test.Foo", "package test;", "class Foo {}");
+        assertThat(LineIndex.of(file)).isSameInstanceAs(LineIndex.of(file));
+        assertThat(LineIndex.of(file).lines()).containsExactly("package test;", "class Foo {}").inOrder();
+    }
+}
@@ -0,0 +1,59 @@
+package io.jbock.testing.compile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static io.jbock.common.truth.Truth.assertThat;
+
+/** Tests for {@link NormalizedLines}. */
+class NormalizedLinesTest {
+
+    @Test
+    void removesFormatting() {
+        NormalizedLines lines = NormalizedLines.of(List.of(
+                "  public final class Foo  {  // comment",
+                "",
+                "  /* block",
+                "   * comment */ int x = 1 ;",
+                "  String s = \"a  /* b */ // c\";",
+                "}"));
+        assertThat(lines.lines()).containsExactly(
+                "public final class Foo{",
+                "int x=1;",
+                "String s=\"a  /* b */ // c\";",
+                "}").inOrder();
+    }
+
+    @Test
+    void keepsTokensApart() {
+        NormalizedLines lines = NormalizedLines.of(List.of(
+                "int x = a - -b;",
+                "String s = \"\"\"",
+                "    a  b",
+                "",
+                "    \"\"\";"));
+        assertThat(lines.lines()).containsExactly(
+                "int x=a- -b;",
+                "String s=\"\"\"",
+                "    a  b",
+                "",
+                "    \"\"\";").inOrder();
+    }
+
+    @Test
+    void comparesLines() {
+        NormalizedLines a = NormalizedLines.of(List.of("int  x;", "int y;"));
+        NormalizedLines b = NormalizedLines.of(List.of("int x ;"));
+        assertThat(a.lineEquals(0, b, 0)).isTrue();
+        assertThat(a.lineEquals(1, b, 0)).isFalse();
+    }
+
+    @Test
+    void reportKeepsLineBreakCharactersInLiterals() {
+        NormalizedLines actual = NormalizedLines.of(List.of("String s = \"a\u2028b\";", "int y;"));
+        SubsequenceReport report = SubsequenceChecker.checkSubsequenceIgnoringFormatting(
+                actual, NormalizedLines.of(List.of("int x;"))).orElseThrow();
+        assertThat(report.getActual()).isEqualTo("\"String s=\\\"a\u2028b\\\";\",\n\"int y;\"");
+    }
+}
@@ -0,0 +1,42 @@
+package io.jbock.testing.compile;
+
+import com.sun.source.tree.Tree;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static io.jbock.common.truth.Truth.assertThat;
+
+/** Tests for {@link TreeDiffer}. */
+class TreeDifferTest {
+
+    @Test
+    void everyGetterIsComparedOrIgnored() {
+        for (Tree.Kind kind : Tree.Kind.values()) {
+            if (kind.asInterface() != null) {
+                // throws for a getter that the differ cannot compare
+                TreeDiffer.properties(kind);
+            }
+        }
+    }
+
+    @Test
+    void compilationUnitGettersThatDoNotDescribeTheSourceAreIgnored() {
+        List<String> names = propertyNames(Tree.Kind.COMPILATION_UNIT);
+        assertThat(names).containsAtLeast("getImports", "getPackage", "getTypeDecls");
+        assertThat(names).containsNoneOf("getLineMap", "getSourceFile");
+    }
+
+    @Test
+    void caseLabelsAreComparedOnce() {
+        List<String> names = propertyNames(Tree.Kind.CASE);
+        assertThat(names).containsAtLeast("getExpressions", "getStatements");
+        assertThat(names).doesNotContain("getExpression");
+    }
+
+    private static List<String> propertyNames(Tree.Kind kind) {
+        return TreeDiffer.properties(kind).stream().map(Method::getName).collect(Collectors.toList());
+    }
+}